@@ -0,0 +1,77 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic English-like text for the benchmarks, so every run (and every commit)
+ * parses exactly the same input. Sentences are built from a small grammar and padded
+ * with prepositional phrases up to the length of their bucket.
+ */
+final class BenchmarkCorpus {
+
+    /** Tokens per sentence, roughly: SHORT ~8, MEDIUM ~20, LONG ~45. */
+    enum Length {
+        SHORT(0), MEDIUM(3), LONG(9);
+
+        final int phrases;
+
+        Length(int phrases) {
+            this.phrases = phrases;
+        }
+    }
+
+    private static final String[] DETERMINERS = {"the", "a", "every", "this", "that"};
+    private static final String[] ADJECTIVES = {"quick", "careful", "old", "small", "bright", "quiet", "local", "new"};
+    private static final String[] NOUNS = {"analyst", "report", "server", "student", "river", "committee",
+            "document", "engineer", "village", "letter", "market", "garden"};
+    private static final String[] VERBS = {"reviewed", "found", "built", "described", "moved", "sent",
+            "watched", "explained", "followed", "changed"};
+    private static final String[] PREPOSITIONS = {"near", "after", "with", "under", "before", "behind", "for"};
+
+    private BenchmarkCorpus() {
+    }
+
+    static List<String> sentences(Length length, int count, long seed) {
+        Random random = new Random(seed);
+        List<String> sentences = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder();
+            nounPhrase(sb, random);
+            sb.append(' ').append(pick(VERBS, random)).append(' ');
+            nounPhrase(sb, random);
+            for (int p = 0; p < length.phrases; p++) {
+                sb.append(' ').append(pick(PREPOSITIONS, random)).append(' ');
+                nounPhrase(sb, random);
+            }
+            sb.append(" .");
+            sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+            sentences.add(sb.toString());
+        }
+        return sentences;
+    }
+
+    /** The sentences as one document, a few sentences per line and a blank line between paragraphs. */
+    static String document(Length length, int count, long seed) {
+        StringBuilder sb = new StringBuilder();
+        List<String> sentences = sentences(length, count, seed);
+        for (int i = 0; i < sentences.size(); i++) {
+            sb.append(sentences.get(i)).append(i % 3 == 2 ? "\n" : " ");
+            if (i % 9 == 8) {
+                sb.append('\n');
+            }
+        }
+        return sb.append('\n').toString();
+    }
+
+    private static void nounPhrase(StringBuilder sb, Random random) {
+        sb.append(pick(DETERMINERS, random)).append(' ')
+          .append(pick(ADJECTIVES, random)).append(' ')
+          .append(pick(NOUNS, random));
+    }
+
+    private static String pick(String[] words, Random random) {
+        return words[random.nextInt(words.length)];
+    }
+}
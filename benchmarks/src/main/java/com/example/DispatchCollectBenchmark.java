@@ -0,0 +1,141 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.QueueService.MAX_BATCH_SIZE;
+
+/**
+ * The manager's per-job overhead without AWS and without parsing: pick a task (FairScheduler),
+ * read its lines, send a batch to the in-memory worker queue, let an echo "worker" answer,
+ * then collect the results into the task's output and hand the credits back, the same steps
+ * as the dispatcher and collector in ManagerMain. One invocation is one batch of up to 10 jobs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Dass1.backend=local", "-Dmetrics.logSeconds=0", "-Dmanager.streamOutput=false"})
+@OperationsPerInvocation(MAX_BATCH_SIZE)
+public class DispatchCollectBenchmark {
+
+    private static final String WORKER_QUEUE = "bench-worker-queue";
+    private static final String RESULT_QUEUE = "bench-manager-queue";
+
+    // Number of client tasks competing for the dispatcher
+    @Param({"1", "8"})
+    public int tasks;
+
+    private final LocalCloud cloud = LocalCloud.getInstance();
+    private FairScheduler scheduler;
+    private Map<String, TaskState> byQueue;
+    private Path dir;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("bench-dispatch");
+        scheduler = new FairScheduler(MAX_BATCH_SIZE, Integer.MAX_VALUE);
+        byQueue = new HashMap<>();
+        for (int i = 0; i < tasks; i++) {
+            Path input = Files.createFile(dir.resolve("input" + i));
+            TaskState task = new TaskState("bench-out-" + i, input, dir.resolve("output" + i), 100,
+                    "client-" + i, i == 0 ? FairScheduler.Priority.INTERACTIVE : FairScheduler.Priority.BATCH, 1);
+            task.inputReader.close();
+            task.finishAndClose();
+            // Endless input and discarded output: the benchmark measures the loop, not the disk
+            task.inputReader = new BufferedReader(new JobLines(i));
+            task.outputWriter = new BufferedWriter(Writer.nullWriter());
+            byQueue.put(task.outputQueueName, task);
+            offer(task);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        for (TaskState task : byQueue.values()) {
+            Files.deleteIfExists(task.inputPath);
+            Files.deleteIfExists(task.outputPath);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public int dispatchAndCollect() throws InterruptedException {
+        // Dispatcher
+        TaskState task = scheduler.next(1000);
+        task.queued.set(false);
+        List<String> batch = new ArrayList<>();
+        while (batch.size() < MAX_BATCH_SIZE && batch.size() < task.credits.get()) {
+            batch.add(task.readNextLine());
+        }
+        task.linesSent.addAndGet(batch.size());
+        task.credits.addAndGet(-batch.size());
+        scheduler.charge(task, cloud.sendJobMessageBatch(WORKER_QUEUE, batch, task.outputQueueName));
+        offer(task);
+
+        // Echo worker
+        for (String[] job : cloud.receiveJobsBatch(WORKER_QUEUE, MAX_BATCH_SIZE, 0)) {
+            cloud.sendJobMessage(RESULT_QUEUE, job[0] + "\ts3://bench/result\tPOS", job[1]);
+        }
+
+        // Collector
+        int collected = 0;
+        for (String[] result : cloud.receiveJobsBatch(RESULT_QUEUE, MAX_BATCH_SIZE, 0)) {
+            TaskState owner = byQueue.get(result[1]);
+            owner.credits.incrementAndGet();
+            scheduler.completed(owner);
+            owner.writeResultLine(null, result[0]);
+            offer(owner);
+            collected++;
+        }
+        return collected;
+    }
+
+    // Same rule as ManagerMain.scheduleIfReady
+    private void offer(TaskState task) {
+        if (task.credits.get() > 0 && task.queued.compareAndSet(false, true)) {
+            scheduler.offer(task);
+        }
+    }
+
+    /** An endless input file: "POS\thttp://example.com/<task>/<n>.txt" lines. */
+    private static final class JobLines extends Reader {
+        private final int task;
+        private long line = 0;
+        private String current = "";
+        private int pos = 0;
+
+        JobLines(int task) {
+            this.task = task;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) {
+            if (pos == current.length()) {
+                current = "POS\thttp://example.com/" + task + "/" + (line++) + ".txt\n";
+                pos = 0;
+            }
+            int n = Math.min(len, current.length() - pos);
+            current.getChars(pos, pos + n, buf, off);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.trees.Tree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of already-parsed trees into the output format (POS tags, Penn trees, typed
+ * dependencies), without the parser. Scores are per sentence.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Dmetrics.logSeconds=0"})
+public class SerializationBenchmark {
+
+    @Param({"POS", "CONSTITUENCY", "DEPENDENCY"})
+    public String type;
+
+    @Param({"SHORT", "MEDIUM", "LONG"})
+    public BenchmarkCorpus.Length length;
+
+    private List<Tree> trees;
+
+    @Setup
+    public void setUp() {
+        trees = new ArrayList<>();
+        String text = String.join(" ", BenchmarkCorpus.sentences(length, 20, 11));
+        for (List<HasWord> sentence : StanfordAnalysis.splitSentences(text)) {
+            trees.add(StanfordAnalysis.parse(sentence));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(20)
+    public int render() throws IOException {
+        int chars = 0;
+        for (Tree tree : trees) {
+            chars += StanfordAnalysis.render(type, List.of(tree)).length();
+        }
+        return chars;
+    }
+}
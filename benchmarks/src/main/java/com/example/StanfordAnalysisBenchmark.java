@@ -0,0 +1,60 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end analysis of a document (sentence split, parse, render, ordered write), per analysis
+ * type and sentence length. Scores are per sentence. The sentence cache is off so every
+ * sentence really goes through the parser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Dworker.sentenceCacheSize=0", "-Dmetrics.logSeconds=0"})
+@OperationsPerInvocation(StanfordAnalysisBenchmark.SENTENCES)
+public class StanfordAnalysisBenchmark {
+
+    static final int SENTENCES = 30;
+
+    @Param({"POS", "CONSTITUENCY", "DEPENDENCY"})
+    public String type;
+
+    @Param({"SHORT", "MEDIUM", "LONG"})
+    public BenchmarkCorpus.Length length;
+
+    // 0 = parse inline on the calling thread, otherwise the size of the parse pool
+    @Param({"0", "4"})
+    public int parseThreads;
+
+    private String document;
+    private ExecutorService pool;
+
+    @Setup
+    public void setUp() {
+        document = BenchmarkCorpus.document(length, SENTENCES, 42);
+        pool = parseThreads > 0 ? Executors.newFixedThreadPool(parseThreads) : null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public int performAnalysis() throws IOException {
+        return StanfordAnalysis.performAnalysis(type, new BufferedReader(new StringReader(document)),
+                Writer.nullWriter(), pool);
+    }
+}
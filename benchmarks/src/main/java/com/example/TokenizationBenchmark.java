@@ -0,0 +1,38 @@
+package com.example;
+
+import edu.stanford.nlp.ling.HasWord;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Tokenization and sentence splitting of a paragraph, the step before any parsing. Scores are per sentence. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Dmetrics.logSeconds=0"})
+@OperationsPerInvocation(TokenizationBenchmark.SENTENCES)
+public class TokenizationBenchmark {
+
+    static final int SENTENCES = 200;
+
+    @Param({"SHORT", "MEDIUM", "LONG"})
+    public BenchmarkCorpus.Length length;
+
+    private String paragraph;
+
+    @Setup
+    public void setUp() {
+        paragraph = String.join(" ", BenchmarkCorpus.sentences(length, SENTENCES, 7));
+    }
+
+    @Benchmark
+    public void splitSentences(Blackhole bh) {
+        for (List<HasWord> sentence : StanfordAnalysis.splitSentences(paragraph)) {
+            bh.consume(sentence);
+        }
+    }
+}
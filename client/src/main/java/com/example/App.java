@@ -13,7 +13,7 @@ public class App {
 
 
 
-    final static AWS aws = AWS.getInstance();
+    final static CloudServices aws = CloudServices.getInstance();
     final static String inputFileKey = "/input.txt";
     final static String outputFileKey = "/output.txt";
 
@@ -50,7 +50,9 @@ public class App {
         //String managerId = aws.ensureManagerIsRunning(ec2Script);
 
 
+        long uploadStart = System.nanoTime();
         String inputFile = aws.uploadFile("input" + System.currentTimeMillis() + ".txt" , InputPath);
+        Metrics.histogram("client.upload").recordSince(uploadStart);
         String outputQueueName = outputQueueBaseName + System.currentTimeMillis();
 
 
@@ -71,13 +73,35 @@ public class App {
 
 
 
-        aws.sendJobMessage(inputQueueName, inputFile, outputQueueName);
+        // The manager schedules tasks fairly per client; -Dclient.priority=interactive|batch
+        // and -Dclient.weight override the size-based default
+        String taskRequest = inputFile + "\tclient=" + System.getProperty("client.id", System.getProperty("user.name"));
+        if (System.getProperty("client.priority") != null) {
+            taskRequest += "\tpriority=" + System.getProperty("client.priority");
+        }
+        if (System.getProperty("client.weight") != null) {
+            taskRequest += "\tweight=" + System.getProperty("client.weight");
+        }
+        aws.sendJobMessage(inputQueueName, taskRequest, outputQueueName);
+        long waitStart = System.nanoTime();
         String outputLoc = waitForResult(outputQueueName);
+        Metrics.histogram("client.waitForResult").recordSince(waitStart);
+        if (outputLoc.startsWith("ERROR\t")) {
+            // The manager couldn't produce the output
+            System.err.println("[ERROR] task failed: " + outputLoc.substring("ERROR\t".length()));
+            aws.deleteQueue(outputQueueName);
+            return;
+        }
         System.out.println("Output location: " + outputLoc);
 
+        long downloadStart = System.nanoTime();
         aws.downloadFile(outputLoc, OutputPath);
+        Metrics.histogram("client.download").recordSince(downloadStart);
         aws.deleteQueue(outputQueueName);
 
+        // The client is short-lived, so one snapshot at the end instead of periodic ones
+        System.out.print(Metrics.snapshot("client"));
+
 
 
     }
@@ -96,7 +120,7 @@ public class App {
 
     private static void setup() {
         System.out.println("[DEBUG] Create bucket if not exist.");
-        aws.createBucketIfNotExists(aws.bucketName);
+        aws.createBucketIfNotExists(aws.getBucketName());
     }
 
     private static void createEC2() {
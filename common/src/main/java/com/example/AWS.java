@@ -1,24 +1,45 @@
 package com.example;
 
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.Tag;
 import software.amazon.awssdk.services.ec2.model.*;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.*;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
-public class AWS {
+public class AWS implements CloudServices {
     private final S3Client s3;
     private final SqsClient sqs;
     private final Ec2Client ec2;
 
+    // Non-blocking clients: requests are multiplexed on a few Netty event-loop threads, so many
+    // long polls and transfers can be outstanding without a thread each
+    private final SqsAsyncClient sqsAsync;
+
+    // Connection pools (-Daws.maxConnections for the blocking clients, -Daws.async.maxConcurrency
+    // and -Daws.async.eventLoopThreads for the async ones; 0 threads = Netty's default)
+    private static final int MAX_CONNECTIONS = Integer.getInteger("aws.maxConnections", 100);
+    private static final int ASYNC_MAX_CONCURRENCY = Integer.getInteger("aws.async.maxConcurrency", 500);
+    private static final int ASYNC_EVENT_LOOP_THREADS = Integer.getInteger("aws.async.eventLoopThreads", 0);
+
     //public static String ami = "ami-00e95a9222311e8ed";
     public static String ami = "ami-05eeee1aeb15ecde0";
     public static String workerAmi = "ami-05eeee1aeb15ecde0";
@@ -29,16 +50,33 @@ public class AWS {
 
     private static final AWS instance = new AWS();
 
-    private final HashMap<String, String> queueToUrls;
+    // Shared by every manager/worker thread
+    private final Map<String, String> queueToUrls = new ConcurrentHashMap<>();
+
+    // Part size for streamed (multipart) uploads, also the most memory one upload stream holds
+    private final int uploadPartSize = Integer.getInteger("aws.uploadPartSizeMb", 8) * 1024 * 1024;
+    private final int uploadPartsInFlight = Integer.getInteger("aws.uploadPartsInFlight", 4);
 
     private final String keyName = "vockey";
     private final String instanceProfileName = "LabInstanceProfile";
 
     private AWS() {
-        s3 = S3Client.builder().region(region1).build();
-        sqs = SqsClient.builder().region(region1).build();
+        s3 = S3Client.builder().region(region1)
+                .httpClientBuilder(ApacheHttpClient.builder().maxConnections(MAX_CONNECTIONS)).build();
+        sqs = SqsClient.builder().region(region1)
+                .httpClientBuilder(ApacheHttpClient.builder().maxConnections(MAX_CONNECTIONS)).build();
         ec2 = Ec2Client.builder().region(region2).build();
-        queueToUrls = new HashMap<>();
+        sqsAsync = SqsAsyncClient.builder().region(region1).httpClientBuilder(asyncHttpClient()).build();
+    }
+
+    private static NettyNioAsyncHttpClient.Builder asyncHttpClient() {
+        NettyNioAsyncHttpClient.Builder builder = NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(ASYNC_MAX_CONCURRENCY)
+                .maxPendingConnectionAcquires(ASYNC_MAX_CONCURRENCY * 10);
+        if (ASYNC_EVENT_LOOP_THREADS > 0) {
+            builder.eventLoopGroupBuilder(SdkEventLoopGroup.builder().numberOfThreads(ASYNC_EVENT_LOOP_THREADS));
+        }
+        return builder;
     }
 
     public static AWS getInstance() {
@@ -47,6 +85,10 @@ public class AWS {
 
     public String bucketName = "dsp-ass1-321856736937";
 
+    public String getBucketName() {
+        return bucketName;
+    }
+
 
     // S3
     public void createBucketIfNotExists(String bucketName) {
@@ -73,7 +115,9 @@ public class AWS {
                 .key(key)
                 .build();
 
+        long start = System.nanoTime();
         s3.putObject(putReq, localPath);
+        Metrics.histogram("aws.s3.upload").recordSince(start);
 
         System.out.printf("[INFO] Uploaded %s to s3://%s/%s%n",
                 localPath, bucket, key);
@@ -97,6 +141,80 @@ public class AWS {
         downloadFile(bucketName, key, destination);
     }
 
+    public boolean exists(String key) {
+        try {
+            s3.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .build());
+            return true;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    public InputStream openDownloadStream(String key) {
+        return s3.getObject(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build());
+    }
+
+    public InputStream openDownloadStream(String key, long from, long to) {
+        ResponseInputStream<GetObjectResponse> in;
+        try {
+            in = s3.getObject(GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .range("bytes=" + from + "-" + (to < 0 ? "" : Long.toString(to)))
+                    .build());
+        } catch (S3Exception e) {
+            if (e.statusCode() == 416) {
+                // Range not satisfiable: starts past the end of the object
+                return InputStream.nullInputStream();
+            }
+            throw e;
+        }
+        // Closing the SDK stream early would read the rest of the range to reuse the
+        // connection; abort it instead
+        return new FilterInputStream(in) {
+            private boolean ended = false;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                ended |= b == -1;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                int n = super.read(buf, off, len);
+                ended |= n == -1;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!ended) {
+                    in.abort();
+                }
+                super.close();
+            }
+        };
+    }
+
+    public BlobOutputStream openUploadStream(String key) {
+        return new S3MultipartOutputStream(s3, bucketName, key, uploadPartSize);
+    }
+
+    public BlobOutputStream openUploadStream(String key, Executor partUploads) {
+        return new S3MultipartOutputStream(s3, bucketName, key, uploadPartSize, partUploads, uploadPartsInFlight);
+    }
+
 
     // EC2
     public String createEC2(String script, String tagName, int numberOfInstances) {
@@ -172,6 +290,19 @@ public class AWS {
         return url;
     }
 
+    // Like getQueueUrl, without blocking on a cache miss
+    private CompletableFuture<String> getQueueUrlAsync(String queueName) {
+        String url = queueToUrls.get(queueName);
+        if (url != null) {
+            return CompletableFuture.completedFuture(url);
+        }
+        return sqsAsync.getQueueUrl(GetQueueUrlRequest.builder().queueName(queueName).build())
+                .thenApply(response -> {
+                    queueToUrls.put(queueName, response.queueUrl());
+                    return response.queueUrl();
+                });
+    }
+
     public boolean sendMessage(String queueName, String body) {
         String queueUrl = null;
         try {
@@ -225,6 +356,332 @@ public class AWS {
         return true;
     }
 
+    /**
+     * Sends many job messages with the same response queue using SendMessageBatch
+     * (up to 10 entries per request). Entries that SQS rejects are retried one by one.
+     *
+     * @return the number of messages that were accepted by SQS
+     */
+    public int sendJobMessageBatch(String queueName, List<String> bodies, String responseQueue) {
+        if (bodies == null || bodies.isEmpty()) {
+            return 0;
+        }
+
+        String queueUrl;
+        try {
+            queueUrl = getQueueUrl(queueName);
+        } catch (RuntimeException e) {
+            System.out.println("[ERROR] couldn't send message batch because - " + e.getMessage());
+            return 0;
+        }
+
+        Map<String, MessageAttributeValue> attributes = new HashMap<>();
+        attributes.put(
+                "responseQueue",
+                MessageAttributeValue.builder()
+                        .dataType("String")
+                        .stringValue(responseQueue)
+                        .build()
+        );
+
+        int sent = 0;
+        for (int from = 0; from < bodies.size(); from += MAX_BATCH_SIZE) {
+            int to = Math.min(from + MAX_BATCH_SIZE, bodies.size());
+
+            List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                entries.add(SendMessageBatchRequestEntry.builder()
+                        .id(Integer.toString(i))
+                        .messageBody(bodies.get(i))
+                        .messageAttributes(attributes)
+                        .build());
+            }
+
+            long start = System.nanoTime();
+            SendMessageBatchResponse res = sqs.sendMessageBatch(SendMessageBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(entries)
+                    .build());
+            Metrics.histogram("aws.sqs.sendBatch").recordSince(start);
+
+            sent += res.successful().size();
+
+            // Retry failed entries individually so no line gets lost
+            for (BatchResultErrorEntry failed : res.failed()) {
+                System.err.println("[WARN] batch entry " + failed.id() + " failed: " + failed.message());
+                if (sendJobMessage(queueName, bodies.get(Integer.parseInt(failed.id())), responseQueue)) {
+                    sent++;
+                }
+            }
+        }
+
+        System.out.printf("[SQS] Sent %d job message(s) to %s%n", sent, queueName);
+        return sent;
+    }
+
+    /**
+     * Receives up to {@code maxMessages} (at most 10) job messages in a single long poll
+     * and deletes all of them with one DeleteMessageBatch call.
+     *
+     * Every element of the returned list is {fileKey, responseQueue}, like {@link #receiveJobAsync}.
+     * Returns an empty list when nothing arrived within the wait time.
+     */
+    public List<String[]> receiveJobsBatch(String queueName, int maxMessages, int timeToWaitSeconds) {
+        List<String[]> jobs = new ArrayList<>();
+
+        String queueUrl;
+        try {
+            queueUrl = getQueueUrl(queueName);
+        } catch (RuntimeException e) {
+            System.out.println("[ERROR] couldn't receive messages because - " + e.getMessage());
+            return jobs;
+        }
+
+        ReceiveMessageRequest req = ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .messageAttributeNames("All")
+                .maxNumberOfMessages(Math.max(1, Math.min(maxMessages, MAX_BATCH_SIZE)))
+                .visibilityTimeout(30)
+                .waitTimeSeconds(timeToWaitSeconds)
+                .build();
+
+        long start = System.nanoTime();
+        List<Message> messages = sqs.receiveMessage(req).messages();
+        Metrics.histogram("aws.sqs.receive").recordSince(start);
+        if (messages.isEmpty()) {
+            return jobs;
+        }
+
+        for (Message msg : messages) {
+            String responseQueue = null;
+            if (msg.messageAttributes().containsKey("responseQueue")) {
+                responseQueue = msg.messageAttributes()
+                        .get("responseQueue")
+                        .stringValue();
+            }
+            jobs.add(new String[]{msg.body(), responseQueue});
+        }
+
+        List<String> receiptHandles = new ArrayList<>();
+        for (Message msg : messages) {
+            receiptHandles.add(msg.receiptHandle());
+        }
+        deleteMessageBatch(queueUrl, receiptHandles);
+        return jobs;
+    }
+
+    public CompletableFuture<List<String[]>> receiveJobsBatchAsync(String queueName, int maxMessages,
+                                                                  int timeToWaitSeconds) {
+        return getQueueUrlAsync(queueName).thenCompose(queueUrl -> sqsAsync.receiveMessage(ReceiveMessageRequest.builder()
+                        .queueUrl(queueUrl)
+                        .messageAttributeNames("All")
+                        .maxNumberOfMessages(Math.max(1, Math.min(maxMessages, MAX_BATCH_SIZE)))
+                        .visibilityTimeout(30)
+                        .waitTimeSeconds(timeToWaitSeconds)
+                        .build())
+                .thenCompose(response -> {
+                    List<String[]> jobs = new ArrayList<>();
+                    List<DeleteMessageBatchRequestEntry> deletes = new ArrayList<>();
+                    for (Message msg : response.messages()) {
+                        MessageAttributeValue responseQueue = msg.messageAttributes().get("responseQueue");
+                        jobs.add(new String[]{msg.body(), responseQueue == null ? null : responseQueue.stringValue()});
+                        deletes.add(DeleteMessageBatchRequestEntry.builder()
+                                .id(Integer.toString(deletes.size()))
+                                .receiptHandle(msg.receiptHandle())
+                                .build());
+                    }
+                    if (deletes.isEmpty()) {
+                        return CompletableFuture.completedFuture(jobs);
+                    }
+                    // At most 10 messages per receive, so one delete batch is enough
+                    return sqsAsync.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                                    .queueUrl(queueUrl)
+                                    .entries(deletes)
+                                    .build())
+                            .thenApply(deleted -> jobs);
+                }));
+    }
+
+    /**
+     * Async {@link #sendJobMessageBatch}: entries that SQS rejects are retried one by one, and a
+     * request that fails outright leaves all of its entries unsent.
+     *
+     * @return the bodies that didn't get into the queue, in their original order; empty when all did
+     */
+    public CompletableFuture<List<String>> sendJobMessageBatchAsync(String queueName, List<String> bodies,
+                                                                   String responseQueue) {
+        if (bodies == null || bodies.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+
+        Map<String, MessageAttributeValue> attributes = Map.of("responseQueue", MessageAttributeValue.builder()
+                .dataType("String")
+                .stringValue(responseQueue)
+                .build());
+
+        return getQueueUrlAsync(queueName).thenCompose(queueUrl -> {
+            List<CompletableFuture<List<String>>> requests = new ArrayList<>();
+            for (int from = 0; from < bodies.size(); from += MAX_BATCH_SIZE) {
+                List<String> chunk = bodies.subList(from, Math.min(from + MAX_BATCH_SIZE, bodies.size()));
+                List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+                for (int i = 0; i < chunk.size(); i++) {
+                    entries.add(SendMessageBatchRequestEntry.builder()
+                            .id(Integer.toString(i))
+                            .messageBody(chunk.get(i))
+                            .messageAttributes(attributes)
+                            .build());
+                }
+                long start = System.nanoTime();
+                requests.add(sqsAsync.sendMessageBatch(SendMessageBatchRequest.builder()
+                                .queueUrl(queueUrl)
+                                .entries(entries)
+                                .build())
+                        .thenCompose(res -> {
+                            Metrics.histogram("aws.sqs.sendBatch").recordSince(start);
+                            // Retry failed entries individually so no line gets lost
+                            List<CompletableFuture<String>> retries = new ArrayList<>();
+                            for (BatchResultErrorEntry failed : res.failed()) {
+                                System.err.println("[WARN] batch entry " + failed.id() + " failed: " + failed.message());
+                                String body = chunk.get(Integer.parseInt(failed.id()));
+                                retries.add(sqsAsync.sendMessage(SendMessageRequest.builder()
+                                                .queueUrl(queueUrl)
+                                                .messageBody(body)
+                                                .messageAttributes(attributes)
+                                                .build())
+                                        .handle((sent, error) -> {
+                                            if (error != null) {
+                                                System.out.println("[ERROR] couldn't send message because - " + error.getMessage());
+                                                return body;
+                                            }
+                                            return null;
+                                        }));
+                            }
+                            return CompletableFuture.allOf(retries.toArray(new CompletableFuture[0]))
+                                    .thenApply(done -> {
+                                        List<String> unsent = new ArrayList<>();
+                                        for (CompletableFuture<String> retry : retries) {
+                                            if (retry.join() != null) {
+                                                unsent.add(retry.join());
+                                            }
+                                        }
+                                        return unsent;
+                                    });
+                        })
+                        .exceptionally(error -> {
+                            System.out.println("[ERROR] couldn't send message batch because - " + error.getMessage());
+                            return chunk;
+                        }));
+            }
+            return CompletableFuture.allOf(requests.toArray(new CompletableFuture[0]))
+                    .thenApply(done -> {
+                        List<String> unsent = new ArrayList<>();
+                        for (CompletableFuture<List<String>> request : requests) {
+                            unsent.addAll(request.join());
+                        }
+                        return unsent;
+                    });
+        });
+    }
+
+    public List<QueueMessage> receiveLeases(String queueName, int maxMessages, int visibilitySeconds,
+                                            int timeToWaitSeconds) {
+        List<QueueMessage> leases = new ArrayList<>();
+
+        String queueUrl;
+        try {
+            queueUrl = getQueueUrl(queueName);
+        } catch (RuntimeException e) {
+            System.out.println("[ERROR] couldn't receive messages because - " + e.getMessage());
+            return leases;
+        }
+
+        ReceiveMessageRequest req = ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .messageAttributeNames("All")
+                .maxNumberOfMessages(Math.max(1, Math.min(maxMessages, MAX_BATCH_SIZE)))
+                .visibilityTimeout(visibilitySeconds)
+                .waitTimeSeconds(timeToWaitSeconds)
+                .build();
+
+        long start = System.nanoTime();
+        List<Message> messages = sqs.receiveMessage(req).messages();
+        Metrics.histogram("aws.sqs.receive").recordSince(start);
+
+        for (Message msg : messages) {
+            String responseQueue = null;
+            if (msg.messageAttributes().containsKey("responseQueue")) {
+                responseQueue = msg.messageAttributes()
+                        .get("responseQueue")
+                        .stringValue();
+            }
+            leases.add(new QueueMessage(msg.body(), responseQueue, msg.receiptHandle()));
+        }
+        return leases;
+    }
+
+    public boolean extendVisibility(String queueName, String receiptHandle, int visibilitySeconds) {
+        try {
+            sqs.changeMessageVisibility(ChangeMessageVisibilityRequest.builder()
+                    .queueUrl(getQueueUrl(queueName))
+                    .receiptHandle(receiptHandle)
+                    .visibilityTimeout(visibilitySeconds)
+                    .build());
+            return true;
+        } catch (RuntimeException e) {
+            System.err.println("[WARN] couldn't extend visibility on " + queueName + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    public void deleteMessages(String queueName, List<String> receiptHandles) {
+        try {
+            deleteMessageBatch(getQueueUrl(queueName), receiptHandles);
+        } catch (RuntimeException e) {
+            System.err.println("[ERROR] couldn't delete messages from " + queueName + ": " + e.getMessage());
+        }
+    }
+
+    public int approximateDepth(String queueName) {
+        try {
+            Map<QueueAttributeName, String> attributes = sqs.getQueueAttributes(GetQueueAttributesRequest.builder()
+                    .queueUrl(getQueueUrl(queueName))
+                    .attributeNames(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES,
+                            QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE)
+                    .build()).attributes();
+
+            return Integer.parseInt(attributes.getOrDefault(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES, "0")) +
+                    Integer.parseInt(attributes.getOrDefault(
+                            QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE, "0"));
+        } catch (RuntimeException e) {
+            System.err.println("[WARN] couldn't read depth of " + queueName + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    // Deletes the given messages, 10 receipt handles per DeleteMessageBatch request
+    private void deleteMessageBatch(String queueUrl, List<String> receiptHandles) {
+        for (int from = 0; from < receiptHandles.size(); from += MAX_BATCH_SIZE) {
+            int to = Math.min(from + MAX_BATCH_SIZE, receiptHandles.size());
+
+            List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                entries.add(DeleteMessageBatchRequestEntry.builder()
+                        .id(Integer.toString(i))
+                        .receiptHandle(receiptHandles.get(i))
+                        .build());
+            }
+
+            DeleteMessageBatchResponse res = sqs.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(entries)
+                    .build());
+
+            for (BatchResultErrorEntry failed : res.failed()) {
+                System.err.println("[WARN] failed to delete message " + failed.id() + ": " + failed.message());
+            }
+        }
+    }
+
     public String receiveOneMessage(String queueName) {
         String queueUrl = null;
         try {
@@ -371,7 +828,9 @@ public class AWS {
                 .waitTimeSeconds(timeToWaitSeconds)     // <-- THIS makes the thread sleep until a message arrives
                 .build();
 
+        long start = System.nanoTime();
         ReceiveMessageResponse res = sqs.receiveMessage(req);
+        Metrics.histogram("aws.sqs.receive").recordSince(start);
 
         // No message found after waiting up to 10 seconds
         if (res.messages().isEmpty()) {
@@ -398,11 +857,6 @@ public class AWS {
         return new String[]{fileKey, responseQueue};
     }
 
-    public void uploadFileAndNotifyPc(String fileKey, Path filePath, String queueName) {
-        uploadFile(fileKey, filePath);
-        sendMessage(queueName, fileKey);
-    }
-
     public List<String> createWorkerInstances(String userDataScript, int numberOfInstances) {
 
         String userDataBase64 = Base64.getEncoder()
@@ -0,0 +1,14 @@
+package com.example;
+
+import java.io.OutputStream;
+
+/**
+ * Stream that writes one object to the {@link BlobStore} while it is being produced.
+ *
+ * close() makes the object visible under its key; abort() throws away everything
+ * written so far (call it instead of close() when producing the content failed).
+ */
+public abstract class BlobOutputStream extends OutputStream {
+
+    public abstract void abort();
+}
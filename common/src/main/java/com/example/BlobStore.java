@@ -0,0 +1,44 @@
+package com.example;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+
+/**
+ * Object storage operations (S3 in production, a local directory in tests/benchmarks).
+ */
+public interface BlobStore {
+
+    String getBucketName();
+
+    void createBucketIfNotExists(String bucketName);
+
+    String uploadFile(String bucket, String key, Path localPath);
+
+    String uploadFile(String key, Path localPath);
+
+    void downloadFile(String key, Path destination);
+
+    boolean exists(String key);
+
+    /** Opens the object at {@code key} for reading; the caller closes the stream. */
+    InputStream openDownloadStream(String key);
+
+    /**
+     * Opens bytes {@code from} to {@code to} (inclusive; -1 = to the end) of the object at
+     * {@code key}. A range past the end of the object reads as empty. Closing the stream before
+     * its end drops the rest of the range without downloading it.
+     */
+    InputStream openDownloadStream(String key, long from, long to);
+
+    /** Opens a stream that uploads to {@code key} while it is written; see {@link BlobOutputStream}. */
+    BlobOutputStream openUploadStream(String key);
+
+    /**
+     * Like {@link #openUploadStream(String)}, but hands the upload of each full part to
+     * {@code partUploads} instead of blocking the writer; stores without parts ignore it.
+     */
+    default BlobOutputStream openUploadStream(String key, Executor partUploads) {
+        return openUploadStream(key);
+    }
+}
@@ -0,0 +1,26 @@
+package com.example;
+
+import java.nio.file.Path;
+
+/**
+ * Everything the client, manager and worker need from the cloud, behind one handle.
+ *
+ * The backend is chosen with the system property {@code ass1.backend}:
+ *   - "aws" (default) – {@link AWS}, real SQS / S3 / EC2
+ *   - "local"         – {@link LocalCloud}, in-memory queues, a local directory and threads
+ */
+public interface CloudServices extends QueueService, BlobStore, InstanceLauncher {
+
+    static CloudServices getInstance() {
+        String backend = System.getProperty("ass1.backend", "aws");
+        if (backend.equalsIgnoreCase("local")) {
+            return LocalCloud.getInstance();
+        }
+        return AWS.getInstance();
+    }
+
+    default void uploadFileAndNotifyPc(String fileKey, Path filePath, String queueName) {
+        uploadFile(fileKey, filePath);
+        sendMessage(queueName, fileKey);
+    }
+}
@@ -0,0 +1,35 @@
+package com.example;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 helpers for the content-addressed keys (result cache, document cache, staged documents).
+ */
+public final class Digests {
+
+    private Digests() {
+    }
+
+    /** A new SHA-256 digest, e.g. to hash a stream while it is copied. */
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Lower-case hex SHA-256 of the UTF-8 bytes of {@code s}. */
+    public static String sha256Hex(String s) {
+        return hex(sha256().digest(s.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** Lower-case hex of a digest. */
+    public static String hex(byte[] digest) {
+        return HexFormat.of().formatHex(digest);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * What a HEAD request says about a document: its size, whether byte ranges can be fetched,
+ * and a validator that changes when the document does.
+ */
+public final class DocumentHead {
+
+    public final long contentLength;   // -1 = unknown
+    public final boolean acceptsRanges;
+    private final String etag;
+    private final String lastModified;
+
+    private DocumentHead(long contentLength, boolean acceptsRanges, String etag, String lastModified) {
+        this.contentLength = contentLength;
+        this.acceptsRanges = acceptsRanges;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Sends a HEAD request (5 s connect and read timeouts).
+     *
+     * @return null for a URL that isn't HTTP(S) or an answer other than 200
+     */
+    public static DocumentHead fetch(String urlStr) throws IOException {
+        if (!urlStr.startsWith("http://") && !urlStr.startsWith("https://")) {
+            return null;
+        }
+        HttpURLConnection conn = (HttpURLConnection) new URL(urlStr).openConnection();
+        conn.setRequestMethod("HEAD");
+        conn.setConnectTimeout(5000);
+        conn.setReadTimeout(5000);
+        try {
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            return new DocumentHead(conn.getContentLengthLong(),
+                    "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges")),
+                    conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /** The ETag, or Last-Modified + Content-Length when there is none; null when the server gives neither. */
+    public String validator() {
+        if (etag != null && !etag.isEmpty()) {
+            return "etag:" + etag;
+        }
+        if (lastModified != null && contentLength >= 0) {
+            return "lm:" + lastModified + ":" + contentLength;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example;
+
+import java.util.List;
+
+/**
+ * Starting and stopping the Manager / Worker machines.
+ */
+public interface InstanceLauncher {
+
+    String createEC2(String script, String tagName, int numberOfInstances);
+
+    String ensureManagerIsRunning(String managerUserDataScript);
+
+    List<String> createWorkerInstances(String userDataScript, int numberOfInstances);
+
+    void terminateInstances(List<String> instanceIds);
+}
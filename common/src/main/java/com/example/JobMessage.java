@@ -0,0 +1,111 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A worker job: {@code TYPE<TAB>URL} as written in the client's input file, optionally
+ * followed by more TAB-separated "key=value" options added by the manager
+ * (e.g. "shard=..." for one byte range of a large document).
+ *
+ * The manager folds input lines that ask for different analyses of the same URL into one
+ * job with a "types=POS,DEPENDENCY" option, so the document is downloaded and parsed once.
+ * The "seq" option holds the input line number of each type ("seq=0,4"), which the worker
+ * echoes in its results so the manager can write them in input order.
+ */
+public class JobMessage {
+
+    public final String analysisType;
+    public final String url;
+    public final Map<String, String> options;
+
+    public JobMessage(String analysisType, String url, Map<String, String> options) {
+        this.analysisType = analysisType;
+        this.url = url;
+        this.options = options;
+    }
+
+    public JobMessage(String analysisType, String url) {
+        this(analysisType, url, new LinkedHashMap<>());
+    }
+
+    // Parse lines like: "POS<TAB>https://www.gutenberg.org/files/1659/1659-0.txt[<TAB>key=value...]"
+    public static JobMessage parse(String msg) {
+        String[] parts = msg.split("\\t");
+        if (parts.length < 2) {
+            throw new IllegalArgumentException(
+                    "Invalid job format, expected TYPE<TAB>URL but got: " + msg
+            );
+        }
+        String type = parts[0].trim();
+        String url = parts[1].trim();
+        if (type.isEmpty() || url.isEmpty()) {
+            throw new IllegalArgumentException("Empty type or URL in job: " + msg);
+        }
+
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 2; i < parts.length; i++) {
+            int eq = parts[i].indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Invalid job option '" + parts[i] + "' in job: " + msg);
+            }
+            options.put(parts[i].substring(0, eq).trim(), parts[i].substring(eq + 1).trim());
+        }
+        return new JobMessage(type, url, options);
+    }
+
+    public String option(String key) {
+        return options.get(key);
+    }
+
+    /** The analysis types this job stands for, one per input line: the "types" option, or its own type. */
+    public List<String> analysisTypes() {
+        String types = options.get("types");
+        return types == null ? List.of(analysisType) : Arrays.asList(types.split(","));
+    }
+
+    /** The job for one of its analysis types alone, without the "types" option. */
+    public JobMessage forType(String type) {
+        Map<String, String> copy = new LinkedHashMap<>(options);
+        copy.remove("types");
+        return new JobMessage(type, url, copy);
+    }
+
+    /** The input line numbers of this job, one per analysis type; empty if the job has none. */
+    public List<Integer> lineNumbers() {
+        String seq = options.get("seq");
+        if (seq == null) {
+            return List.of();
+        }
+        List<Integer> numbers = new ArrayList<>();
+        for (String n : seq.split(",")) {
+            numbers.add(Integer.parseInt(n.trim()));
+        }
+        return numbers;
+    }
+
+    /** The job for its i-th analysis type alone, with only that line's number. */
+    public JobMessage forLine(int i) {
+        JobMessage job = forType(analysisTypes().get(i));
+        List<Integer> numbers = lineNumbers();
+        return numbers.size() > i ? job.withOption("seq", String.valueOf(numbers.get(i))) : job;
+    }
+
+    public JobMessage withOption(String key, String value) {
+        Map<String, String> copy = new LinkedHashMap<>(options);
+        copy.put(key, value);
+        return new JobMessage(analysisType, url, copy);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(analysisType).append('\t').append(url);
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            sb.append('\t').append(option.getKey()).append('=').append(option.getValue());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,439 @@
+package com.example;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process backend for {@link CloudServices}, so the client, the manager and the
+ * workers can run together in one JVM (load tests, profiling) without an AWS account.
+ *
+ *   - queues    – one LinkedBlockingQueue per queue name, created lazily
+ *   - blobs     – files under {@code <ass1.local.dir>/<bucket>/<key>}
+ *   - instances – threads running the main class registered for the instance tag
+ *                 ("Manager" → com.example.ManagerMain, "Worker" → com.example.Main,
+ *                 overridable with -Dass1.local.main.<Tag>=<class>)
+ *
+ * Run everything locally with the client, manager and worker jars on the classpath:
+ *
+ *     java -Dass1.backend=local -cp client.jar:manager.jar:worker.jar com.example.LocalCloud input.txt out.txt 5
+ */
+public class LocalCloud implements CloudServices {
+
+    private static final LocalCloud instance = new LocalCloud();
+
+    private final Map<String, BlockingQueue<String[]>> queues = new ConcurrentHashMap<>();
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final Map<String, Thread> instances = new ConcurrentHashMap<>();
+    private final AtomicInteger instanceCounter = new AtomicInteger(0);
+    private final AtomicLong leaseCounter = new AtomicLong(0);
+
+    // Runs the async variants; local calls are cheap, so a thread per outstanding call is fine
+    private final ExecutorService asyncCalls = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "local-async");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Path root;
+    private final String bucketName = "local-bucket";
+
+    private LocalCloud() {
+        root = Paths.get(System.getProperty("ass1.local.dir",
+                System.getProperty("java.io.tmpdir") + "/ass1-local"));
+    }
+
+    public static LocalCloud getInstance() {
+        return instance;
+    }
+
+    // Starts a Manager in the background and runs the client in this thread
+    public static void main(String[] args) throws Exception {
+        System.setProperty("ass1.backend", "local");
+        LocalCloud cloud = getInstance();
+        cloud.ensureManagerIsRunning("");
+        runMain(System.getProperty("ass1.local.main.Client", "com.example.App"), args);
+        System.exit(0);
+    }
+
+
+    // Queues
+    private BlockingQueue<String[]> queue(String queueName) {
+        return queues.computeIfAbsent(queueName, q -> new LinkedBlockingQueue<>());
+    }
+
+    public void createSqsQueue(String queueName) {
+        queue(queueName);
+    }
+
+    public void deleteQueue(String queueName) {
+        queues.remove(queueName);
+        System.out.println("[DEBUG] Queue deleted: " + queueName);
+    }
+
+    public boolean sendMessage(String queueName, String body) {
+        return sendJobMessage(queueName, body, null);
+    }
+
+    public boolean sendJobMessage(String queueName, String fileKey, String responseQueue) {
+        queue(queueName).add(new String[]{fileKey, responseQueue});
+        return true;
+    }
+
+    public int sendJobMessageBatch(String queueName, List<String> bodies, String responseQueue) {
+        if (bodies == null) {
+            return 0;
+        }
+        BlockingQueue<String[]> q = queue(queueName);
+        for (String body : bodies) {
+            q.add(new String[]{body, responseQueue});
+        }
+        return bodies.size();
+    }
+
+    public String receiveOneMessage(String queueName) {
+        String[] message = receiveJobAsync(queueName, 10);
+        return message == null ? null : message[0];
+    }
+
+    public String[] receiveJobAsync(String queueName, int timeToWaitSeconds) {
+        requeueExpiredLeases(queueName);
+        try {
+            return queue(queueName).poll(timeToWaitSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    public List<String[]> receiveJobsBatch(String queueName, int maxMessages, int timeToWaitSeconds) {
+        List<String[]> jobs = new ArrayList<>();
+        String[] first = receiveJobAsync(queueName, timeToWaitSeconds);
+        if (first == null) {
+            return jobs;
+        }
+        jobs.add(first);
+        queue(queueName).drainTo(jobs, Math.max(0, Math.min(maxMessages, MAX_BATCH_SIZE) - 1));
+        return jobs;
+    }
+
+    public List<QueueMessage> receiveLeases(String queueName, int maxMessages, int visibilitySeconds,
+                                            int timeToWaitSeconds) {
+        List<QueueMessage> received = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + visibilitySeconds * 1000L;
+        for (String[] message : receiveJobsBatch(queueName, maxMessages, timeToWaitSeconds)) {
+            String handle = queueName + "#" + leaseCounter.incrementAndGet();
+            leases.put(handle, new Lease(queueName, message, deadline));
+            received.add(new QueueMessage(message[0], message[1], handle));
+        }
+        return received;
+    }
+
+    public boolean extendVisibility(String queueName, String receiptHandle, int visibilitySeconds) {
+        Lease lease = leases.get(receiptHandle);
+        if (lease == null) {
+            return false;
+        }
+        lease.deadline = System.currentTimeMillis() + visibilitySeconds * 1000L;
+        return true;
+    }
+
+    public void deleteMessages(String queueName, List<String> receiptHandles) {
+        for (String handle : receiptHandles) {
+            leases.remove(handle);
+        }
+    }
+
+    public CompletableFuture<List<String[]>> receiveJobsBatchAsync(String queueName, int maxMessages,
+                                                                  int timeToWaitSeconds) {
+        return CompletableFuture.supplyAsync(
+                () -> receiveJobsBatch(queueName, maxMessages, timeToWaitSeconds), asyncCalls);
+    }
+
+    public CompletableFuture<List<String>> sendJobMessageBatchAsync(String queueName, List<String> bodies,
+                                                                   String responseQueue) {
+        sendJobMessageBatch(queueName, bodies, responseQueue);
+        return CompletableFuture.completedFuture(List.of());
+    }
+
+    public int approximateDepth(String queueName) {
+        int leased = 0;
+        for (Lease lease : leases.values()) {
+            if (lease.queueName.equals(queueName)) {
+                leased++;
+            }
+        }
+        return queue(queueName).size() + leased;
+    }
+
+    // A leased message whose visibility ran out goes back to its queue, like in SQS
+    private void requeueExpiredLeases(String queueName) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+            Lease lease = entry.getValue();
+            if (lease.queueName.equals(queueName) && lease.deadline < now
+                    && leases.remove(entry.getKey(), lease)) {
+                queue(queueName).add(lease.message);
+            }
+        }
+    }
+
+    private static class Lease {
+        final String queueName;
+        final String[] message;
+        volatile long deadline;
+
+        Lease(String queueName, String[] message, long deadline) {
+            this.queueName = queueName;
+            this.message = message;
+            this.deadline = deadline;
+        }
+    }
+
+
+    // Blobs
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    public void createBucketIfNotExists(String bucketName) {
+        try {
+            Files.createDirectories(root.resolve(bucketName));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path blobPath(String bucket, String key) {
+        // S3 keys may start with '/', which must not escape the bucket directory
+        String relative = key.replaceFirst("^/+", "");
+        return root.resolve(bucket).resolve(relative);
+    }
+
+    public String uploadFile(String bucket, String key, Path localPath) {
+        Path target = blobPath(bucket, key);
+        try {
+            Files.createDirectories(target.getParent());
+            Files.copy(localPath, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.printf("[INFO] Uploaded %s to local://%s/%s%n", localPath, bucket, key);
+        return key;
+    }
+
+    public String uploadFile(String key, Path localPath) {
+        return uploadFile(bucketName, key, localPath);
+    }
+
+    public void downloadFile(String key, Path destination) {
+        try {
+            Path parent = destination.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Files.copy(blobPath(bucketName, key), destination, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    public boolean exists(String key) {
+        return Files.isRegularFile(blobPath(bucketName, key));
+    }
+
+    public InputStream openDownloadStream(String key) {
+        try {
+            return Files.newInputStream(blobPath(bucketName, key));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public InputStream openDownloadStream(String key, long from, long to) {
+        InputStream in = openDownloadStream(key);
+        try {
+            in.skipNBytes(Math.min(from, Files.size(blobPath(bucketName, key))));
+        } catch (IOException e) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+            throw new UncheckedIOException(e);
+        }
+        if (to < 0) {
+            return in;
+        }
+        // Only up to 'to'
+        return new FilterInputStream(in) {
+            private long left = Math.max(0, to - from + 1);
+
+            @Override
+            public int read() throws IOException {
+                if (left <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b != -1) {
+                    left--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                if (left <= 0) {
+                    return len == 0 ? 0 : -1;
+                }
+                int n = super.read(buf, off, (int) Math.min(len, left));
+                if (n > 0) {
+                    left -= n;
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(Math.min(n, left));
+                left -= skipped;
+                return skipped;
+            }
+        };
+    }
+
+    public BlobOutputStream openUploadStream(String key) {
+        Path target = blobPath(bucketName, key);
+        try {
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), ".upload-", ".tmp");
+            OutputStream out = Files.newOutputStream(temp);
+
+            // Written to a temp file and moved into place on close, like an S3 object appearing at once
+            return new BlobOutputStream() {
+                private boolean closed = false;
+
+                public void write(int b) throws IOException {
+                    out.write(b);
+                }
+
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                public void close() throws IOException {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    out.close();
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+
+                public void abort() {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    try {
+                        out.close();
+                        Files.deleteIfExists(temp);
+                    } catch (IOException ignored) {
+                    }
+                }
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    // Instances
+    public String createEC2(String script, String tagName, int numberOfInstances) {
+        List<String> ids = launch(tagName, numberOfInstances);
+        return ids.get(0);
+    }
+
+    public String ensureManagerIsRunning(String managerUserDataScript) {
+        for (Map.Entry<String, Thread> entry : instances.entrySet()) {
+            if (entry.getKey().startsWith("local-Manager-") && entry.getValue().isAlive()) {
+                System.out.println("[INFO] Manager already running: " + entry.getKey());
+                return entry.getKey();
+            }
+        }
+        System.out.println("[INFO] No Manager found. Creating a new one...");
+        return createEC2(managerUserDataScript, "Manager", 1);
+    }
+
+    public List<String> createWorkerInstances(String userDataScript, int numberOfInstances) {
+        return launch("Worker", numberOfInstances);
+    }
+
+    public void terminateInstances(List<String> instanceIds) {
+        if (instanceIds == null || instanceIds.isEmpty()) {
+            return;
+        }
+        for (String id : instanceIds) {
+            Thread t = instances.remove(id);
+            if (t != null) {
+                t.interrupt();
+            }
+        }
+        System.out.println("[DEBUG] Terminating instances: " + instanceIds);
+    }
+
+    private List<String> launch(String tagName, int numberOfInstances) {
+        String mainClass = System.getProperty("ass1.local.main." + tagName, defaultMainClass(tagName));
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < numberOfInstances; i++) {
+            String id = "local-" + tagName + "-" + instanceCounter.incrementAndGet();
+            Thread t = new Thread(() -> {
+                try {
+                    runMain(mainClass, new String[0]);
+                } catch (Exception e) {
+                    System.err.println("[ERROR] local instance " + id + " failed: " + e);
+                }
+            }, id);
+            t.setDaemon(true);
+            instances.put(id, t);
+            t.start();
+            ids.add(id);
+        }
+
+        System.out.printf("[DEBUG] Started %d local %s instance(s) running %s\n",
+                ids.size(), tagName, mainClass);
+        return ids;
+    }
+
+    private static String defaultMainClass(String tagName) {
+        if (tagName.equals("Manager")) {
+            return "com.example.ManagerMain";
+        }
+        return "com.example.Main";
+    }
+
+    private static void runMain(String mainClass, String[] args) throws Exception {
+        Method main = Class.forName(mainClass).getMethod("main", String[].class);
+        main.invoke(null, (Object) args);
+    }
+}
@@ -0,0 +1,157 @@
+package com.example;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide metrics registry: counters, gauges and latency {@link Histogram}s by name.
+ *
+ * Names are dotted, per stage ("worker.parse.sentence", "manager.dispatch.batch"); histogram
+ * values are microseconds. {@link #startReporting(String)} turns on whatever the system
+ * properties ask for:
+ *
+ *   -Dmetrics.port=9400       serve GET /metrics in Prometheus text format (0 = off, default)
+ *   -Dmetrics.logSeconds=60   print a snapshot to stdout every N seconds (0 = off, default)
+ */
+public final class Metrics {
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private static volatile boolean reporting = false;
+
+    private Metrics() {
+    }
+
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /** Registers (or replaces) a gauge read at report time. */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /** Starts the HTTP endpoint and/or the log reporter, once per process. */
+    public static synchronized void startReporting(String component) {
+        if (reporting) {
+            return;
+        }
+        reporting = true;
+
+        int port = Integer.getInteger("metrics.port", 0);
+        if (port > 0) {
+            // The server's dispatcher thread inherits daemon status from the thread that starts it,
+            // so start it from a daemon thread: the endpoint must not keep the process alive
+            Thread starter = daemon("metrics-http-start").newThread(() -> startHttpServer(component, port));
+            starter.start();
+            try {
+                starter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        long logSeconds = Long.getLong("metrics.logSeconds", 0);
+        if (logSeconds > 0) {
+            ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(daemon("metrics-log"));
+            timer.scheduleAtFixedRate(() -> System.out.print(snapshot(component)),
+                    logSeconds, logSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void startHttpServer(String component, int port) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = prometheusText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.setExecutor(Executors.newSingleThreadExecutor(daemon("metrics-http")));
+            server.start();
+            System.out.println("[INFO] " + component + " metrics on http://localhost:" + port + "/metrics");
+        } catch (IOException e) {
+            System.err.println("[WARN] couldn't start metrics endpoint on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    /** Human-readable snapshot, one metric per line. */
+    public static String snapshot(String component) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet()) {
+            sb.append("[METRICS] ").append(component).append(' ').append(e.getKey())
+              .append(" count=").append(e.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, LongSupplier> e : new TreeMap<>(gauges).entrySet()) {
+            sb.append("[METRICS] ").append(component).append(' ').append(e.getKey())
+              .append(" value=").append(e.getValue().getAsLong()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            Histogram h = e.getValue();
+            sb.append(String.format("[METRICS] %s %s n=%d mean=%.0fus p50=%dus p99=%dus max=%dus%n",
+                    component, e.getKey(), h.count(), h.mean(), h.percentile(50), h.percentile(99), h.max()));
+        }
+        return sb.toString();
+    }
+
+    /** Prometheus text exposition; histograms are exported as summaries in seconds. */
+    static String prometheusText() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet()) {
+            String name = promName(e.getKey()) + "_total";
+            sb.append("# TYPE ").append(name).append(" counter\n")
+              .append(name).append(' ').append(e.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, LongSupplier> e : new TreeMap<>(gauges).entrySet()) {
+            String name = promName(e.getKey());
+            sb.append("# TYPE ").append(name).append(" gauge\n")
+              .append(name).append(' ').append(e.getValue().getAsLong()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            String name = promName(e.getKey()) + "_seconds";
+            Histogram h = e.getValue();
+            sb.append("# TYPE ").append(name).append(" summary\n");
+            for (String q : new String[]{"0.5", "0.9", "0.99", "0.999"}) {
+                sb.append(name).append("{quantile=\"").append(q).append("\"} ")
+                  .append(h.percentile(Double.parseDouble(q) * 100) / 1e6).append('\n');
+            }
+            sb.append(name).append("_sum ").append(h.sum() / 1e6).append('\n')
+              .append(name).append("_count ").append(h.count()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String promName(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,18 @@
+package com.example;
+
+/**
+ * A job received under a lease: it stays in the queue, invisible to other consumers, until
+ * it is deleted with its receipt handle or the visibility timeout runs out.
+ */
+public class QueueMessage {
+
+    public final String body;
+    public final String responseQueue;
+    public final String receiptHandle;
+
+    public QueueMessage(String body, String responseQueue, String receiptHandle) {
+        this.body = body;
+        this.responseQueue = responseQueue;
+        this.receiptHandle = receiptHandle;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Message queue operations used by the client, the manager and the workers.
+ *
+ * Job messages carry a body plus the name of the queue the answer should go to
+ * ("responseQueue"). Receiving methods return jobs as {body, responseQueue}.
+ */
+public interface QueueService {
+
+    // SQS allows at most 10 entries per batch request; the local backend keeps the same limit
+    int MAX_BATCH_SIZE = 10;
+
+    void createSqsQueue(String queueName);
+
+    void deleteQueue(String queueName);
+
+    boolean sendMessage(String queueName, String body);
+
+    boolean sendJobMessage(String queueName, String fileKey, String responseQueue);
+
+    int sendJobMessageBatch(String queueName, List<String> bodies, String responseQueue);
+
+    /** Waits up to 10 seconds for one plain message and removes it from the queue. */
+    String receiveOneMessage(String queueName);
+
+    /** Waits up to {@code timeToWaitSeconds} for one job; returns null when none arrived. */
+    String[] receiveJobAsync(String queueName, int timeToWaitSeconds);
+
+    /** Receives up to {@code maxMessages} jobs; returns an empty list when none arrived. */
+    List<String[]> receiveJobsBatch(String queueName, int maxMessages, int timeToWaitSeconds);
+
+    /**
+     * Receives up to {@code maxMessages} jobs WITHOUT deleting them. Each stays invisible for
+     * {@code visibilitySeconds}; the consumer extends that while it works and deletes the
+     * message when done, so a job whose worker dies is delivered again.
+     */
+    List<QueueMessage> receiveLeases(String queueName, int maxMessages, int visibilitySeconds,
+                                     int timeToWaitSeconds);
+
+    /** Makes a leased message stay invisible for another {@code visibilitySeconds} from now. */
+    boolean extendVisibility(String queueName, String receiptHandle, int visibilitySeconds);
+
+    void deleteMessages(String queueName, List<String> receiptHandles);
+
+    /** Messages waiting plus messages leased (in flight) on the queue; -1 if unknown. */
+    int approximateDepth(String queueName);
+
+    // Non-blocking variants: the long poll / send runs without holding a caller thread.
+    // Same semantics as the blocking methods; failures complete the future exceptionally.
+
+    CompletableFuture<List<String[]>> receiveJobsBatchAsync(String queueName, int maxMessages, int timeToWaitSeconds);
+
+    /** Completes with the bodies that didn't get into the queue (empty when all did), so the caller can send them again. */
+    CompletableFuture<List<String>> sendJobMessageBatchAsync(String queueName, List<String> bodies, String responseQueue);
+}
@@ -0,0 +1,262 @@
+package com.example;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Uploads to S3 as the content is written: every {@code partSize} bytes become one
+ * multipart-upload part, so memory stays bounded by a single part no matter how big
+ * the object is. Objects smaller than one part are sent with a single PutObject.
+ * The part buffer is only allocated on the first write.
+ *
+ * Given an executor, full parts are uploaded there while the writer goes on, with at most
+ * {@code maxPartsInFlight} parts queued or uploading (so memory stays bounded by that many
+ * parts plus the one being filled). Without one, each part is uploaded by the writing thread.
+ */
+class S3MultipartOutputStream extends BlobOutputStream {
+
+    // S3 rejects parts smaller than 5 MiB (except the last one)
+    static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String key;
+
+    private final int partSize;
+    private byte[] buffer = null;
+    private int count = 0;
+
+    private final Executor partUploads;   // null = upload on the writing thread
+    private final int maxPartsInFlight;
+
+    private String uploadId = null;
+    private final List<PartUpload> parts = new ArrayList<>();
+    private int partsAwaited = 0;   // parts before this index are known to be uploaded
+    private boolean closed = false;
+
+    /**
+     * One part, uploaded by whichever comes first: the executor, or the writer waiting for it.
+     * Running it in place keeps a writer that waits on the same executor from deadlocking.
+     */
+    private final class PartUpload implements Runnable {
+        final int partNumber;
+        final int length;
+        byte[] data;
+        final AtomicBoolean claimed = new AtomicBoolean(false);
+        final CompletableFuture<CompletedPart> result = new CompletableFuture<>();
+
+        PartUpload(int partNumber, byte[] data, int length) {
+            this.partNumber = partNumber;
+            this.data = data;
+            this.length = length;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                UploadPartResponse res = s3.uploadPart(UploadPartRequest.builder()
+                                .bucket(bucket)
+                                .key(key)
+                                .uploadId(uploadId)
+                                .partNumber(partNumber)
+                                .build(),
+                        body(data, length));
+                result.complete(CompletedPart.builder()
+                        .partNumber(partNumber)
+                        .eTag(res.eTag())
+                        .build());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            } finally {
+                data = null;
+            }
+        }
+
+        CompletedPart await() throws IOException {
+            run();
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                throw new IOException("Uploading part " + partNumber + " of s3://" + bucket + "/" + key + " failed",
+                        e.getCause());
+            }
+        }
+    }
+
+    S3MultipartOutputStream(S3Client s3, String bucket, String key, int partSize) {
+        this(s3, bucket, key, partSize, null, 1);
+    }
+
+    S3MultipartOutputStream(S3Client s3, String bucket, String key, int partSize,
+                            Executor partUploads, int maxPartsInFlight) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = Math.max(partSize, MIN_PART_SIZE);
+        this.partUploads = partUploads;
+        this.maxPartsInFlight = Math.max(1, maxPartsInFlight);
+    }
+
+    private byte[] buffer() {
+        if (buffer == null) {
+            buffer = new byte[partSize];
+        }
+        return buffer;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == partSize) {
+            flushPart();
+        }
+        buffer()[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (count == partSize) {
+                flushPart();
+            }
+            int n = Math.min(len, partSize - count);
+            System.arraycopy(b, off, buffer(), count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void flushPart() throws IOException {
+        try {
+            if (uploadId == null) {
+                uploadId = s3.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .build()).uploadId();
+            }
+        } catch (SdkException e) {
+            abort();
+            throw new IOException("Starting upload of s3://" + bucket + "/" + key + " failed", e);
+        }
+
+        try {
+            PartUpload part = new PartUpload(parts.size() + 1, buffer, count);
+            parts.add(part);
+            count = 0;
+            if (partUploads == null) {
+                part.await();
+                partsAwaited = parts.size();
+                return;
+            }
+            // The executor owns the filled buffer now; the next write allocates a new one
+            buffer = null;
+            while (parts.size() - partsAwaited > maxPartsInFlight) {
+                parts.get(partsAwaited++).await();
+            }
+            partUploads.execute(part);
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        // Marked closed only once the object exists, so a failure leaves nothing behind: the
+        // multipart upload is aborted here, and abort() by the caller still works
+        try {
+            if (uploadId == null) {
+                // Small object: one PutObject, no multipart bookkeeping
+                s3.putObject(PutObjectRequest.builder()
+                                .bucket(bucket)
+                                .key(key)
+                                .build(),
+                        buffer == null ? RequestBody.empty() : body(buffer, count));
+            } else {
+                if (count > 0) {
+                    flushPart();
+                }
+                List<CompletedPart> completed = new ArrayList<>();
+                for (PartUpload part : parts) {
+                    completed.add(part.await());
+                }
+                s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .multipartUpload(CompletedMultipartUpload.builder()
+                                .parts(completed)
+                                .build())
+                        .build());
+            }
+        } catch (IOException e) {
+            abort();
+            throw e;
+        } catch (SdkException e) {
+            abort();
+            throw new IOException("Completing upload of s3://" + bucket + "/" + key + " failed", e);
+        }
+        closed = true;
+        buffer = null;
+
+        System.out.printf("[INFO] Streamed upload to s3://%s/%s (%d part(s))%n",
+                bucket, key, Math.max(1, parts.size()));
+    }
+
+    @Override
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer = null;
+        // Parts still queued are not sent at all
+        for (PartUpload part : parts) {
+            part.claimed.set(true);
+        }
+
+        if (uploadId != null) {
+            try {
+                s3.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .build());
+            } catch (SdkException e) {
+                System.err.println("[ERROR] aborting upload of " + key + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Reads the bytes in place; RequestBody.fromBytes would copy the whole part once more
+    private static RequestBody body(byte[] data, int length) {
+        return RequestBody.fromContentProvider(() -> new ByteArrayInputStream(data, 0, length),
+                length, "application/octet-stream");
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Upload stream for " + key + " is already closed");
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example;
+
+/**
+ * One byte range [start, end] (inclusive) of a document that was split across workers.
+ *
+ * The worker widens the range to whole paragraphs (see ShardInputStream in the worker), so
+ * the shards of a document together cover each paragraph exactly once. Encoded in job and
+ * result messages as "group:index:count:start:end".
+ */
+public class Shard {
+
+    public final String group;   // same for all shards of one document request
+    public final int index;      // 0-based position inside the document
+    public final int count;      // number of shards of the document
+    public final long start;
+    public final long end;
+
+    public Shard(String group, int index, int count, long start, long end) {
+        this.group = group;
+        this.index = index;
+        this.count = count;
+        this.start = start;
+        this.end = end;
+    }
+
+    public static Shard parse(String s) {
+        String[] parts = s.split(":");
+        if (parts.length != 5) {
+            throw new IllegalArgumentException("Invalid shard, expected group:index:count:start:end but got: " + s);
+        }
+        return new Shard(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                Long.parseLong(parts[3]), Long.parseLong(parts[4]));
+    }
+
+    @Override
+    public String toString() {
+        return group + ":" + index + ":" + count + ":" + start + ":" + end;
+    }
+}
@@ -3,7 +3,7 @@ package com.example;
 public class utils {
 
     public static String waitForResult(String queueName) {
-        AWS aws = AWS.getInstance();
+        CloudServices aws = CloudServices.getInstance();
         String body;
         do {
             body = aws.receiveOneMessage(queueName);
@@ -12,7 +12,7 @@ public class utils {
     }
 
     public static String[] waitForJobResult(String queueName) {
-        AWS aws = AWS.getInstance();
+        CloudServices aws = CloudServices.getInstance();
         String[] body;
         do {
             body = aws.receiveJobAsync(queueName, 10);
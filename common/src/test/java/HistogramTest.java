@@ -0,0 +1,45 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.example.Histogram;
+
+public class HistogramTest {
+
+    /**
+     * Percentiles come back within the bucket resolution (~6%) across several orders of magnitude.
+     */
+    @Test
+    public void testPercentilesWithinResolution() {
+        Histogram h = new Histogram();
+        for (long v = 1; v <= 100_000; v++) {
+            h.record(v);
+        }
+
+        assertEquals(100_000, h.count());
+        assertEquals(100_000, h.max());
+        assertWithin(50_000, h.percentile(50));
+        assertWithin(99_000, h.percentile(99));
+        assertWithin(1_000, h.percentile(1));
+        assertEquals(50_000.5, h.mean(), 0.001);
+    }
+
+    /**
+     * Small values are exact, and an empty histogram reports zeros.
+     */
+    @Test
+    public void testSmallValuesAndEmpty() {
+        Histogram h = new Histogram();
+        assertEquals(0, h.percentile(99));
+
+        h.record(3);
+        h.record(3);
+        h.record(7);
+        assertEquals(3, h.percentile(50));
+        assertEquals(7, h.percentile(100));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected * 0.07);
+    }
+}
@@ -0,0 +1,202 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies each distinct document URL once from its origin into S3, under a content-addressed
+ * key ("staged/<sha256 of the body>.txt"), so workers read it in-region instead of every one of
+ * them hitting the origin (shards of one book, the same book in several tasks or clients).
+ *
+ * Staging runs in the background as soon as a task arrives. A job whose document is staged by
+ * the time it is sent gets a "source=s3://..." option, the others go out as before and the
+ * worker downloads from the origin itself; the dispatcher holds back only the jobs that gain the
+ * most (large documents, sent as many shards), and those for at most a bounded time. A URL that
+ * fails to stage is not tried again while it is remembered (the last {@value #MAX_STAGED} URLs).
+ *
+ * Each staged copy is also recorded under the document's URL and HTTP validator, so a document
+ * staged before (by an earlier run, whose workers cached results under its content hash) is
+ * reused after one HEAD request instead of being downloaded again.
+ */
+class DocumentStager {
+
+    static final String PREFIX = "staged/";
+    // "staged/by-url/<sha256 of URL and validator>" holds the key of that document version's staged copy
+    static final String INDEX_PREFIX = PREFIX + "by-url/";
+
+    // URLs remembered, least recently used dropped first
+    static final int MAX_STAGED = 10_000;
+
+    private static final HttpClient HTTP = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    private final CloudServices aws;
+    private final ExecutorService pool;
+
+    // URL -> staging of it
+    private final Map<String, Staging> staged = Collections.synchronizedMap(
+            new LinkedHashMap<String, Staging>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Staging> eldest) {
+                    return size() > MAX_STAGED;
+                }
+            });
+
+    private static class Staging {
+        final long startedAt = System.currentTimeMillis();
+        final CompletableFuture<String> key;   // staged key, null when staging failed
+
+        Staging(CompletableFuture<String> key) {
+            this.key = key;
+        }
+    }
+
+    DocumentStager(CloudServices aws, int threads) {
+        this.aws = aws;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "document-stager");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Starts staging the URL unless it was staged (or tried) before. */
+    void stage(String url) {
+        if (!url.startsWith("http://") && !url.startsWith("https://")) {
+            return;
+        }
+        staged.computeIfAbsent(url, u -> new Staging(CompletableFuture.supplyAsync(() -> copyToS3(u), pool)));
+    }
+
+    /** "s3://bucket/key" of the staged copy, or null if it isn't ready (or failed). Never blocks. */
+    String stagedSource(String url) {
+        Staging staging = staged.get(url);
+        if (staging == null || !staging.key.isDone() || staging.key.isCompletedExceptionally()
+                || staging.key.join() == null) {
+            return null;
+        }
+        return "s3://" + aws.getBucketName() + "/" + staging.key.join();
+    }
+
+    /**
+     * What to wait for before sending a job for the URL so it gets the staged copy: null when
+     * the URL is staged (or failed, or isn't being staged) or has been staging for longer than
+     * {@code maxWaitMillis}; otherwise a future that completes when either happens.
+     */
+    CompletableFuture<?> pending(String url, long maxWaitMillis) {
+        Staging staging = staged.get(url);
+        if (staging == null || staging.key.isDone()) {
+            return null;
+        }
+        long left = staging.startedAt + maxWaitMillis - System.currentTimeMillis();
+        if (left <= 0) {
+            return null;
+        }
+        return staging.key.copy().completeOnTimeout(null, left, TimeUnit.MILLISECONDS);
+    }
+
+    /** The job with its document's staged copy as "source", if there is one yet. */
+    String withStagedSource(String jobLine) {
+        try {
+            JobMessage job = JobMessage.parse(jobLine);
+            String source = job.option("source") == null ? stagedSource(job.url) : null;
+            return source == null ? jobLine : job.withOption("source", source).toString();
+        } catch (IllegalArgumentException e) {
+            // Malformed lines are passed on unchanged, the worker reports them
+            return jobLine;
+        }
+    }
+
+    private String copyToS3(String url) {
+        long start = System.nanoTime();
+        Path temp = null;
+        try {
+            // A version staged before needs no download (its cached results are keyed by its content)
+            DocumentHead head = DocumentHead.fetch(url);
+            String indexKey = head == null || head.validator() == null
+                    ? null : INDEX_PREFIX + Digests.sha256Hex(url + "\n" + head.validator());
+            String previous = indexKey == null ? null : stagedBefore(indexKey);
+            if (previous != null) {
+                Metrics.counter("manager.stage.reused").increment();
+                System.out.printf("[DEBUG] DocumentStager: %s was staged before as %s%n", url, previous);
+                return previous;
+            }
+
+            temp = Files.createTempFile("ass1-staging-", ".txt");
+            MessageDigest sha256 = Digests.sha256();
+
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofMinutes(2)).build();
+            HttpResponse<InputStream> response = HTTP.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new IOException("HTTP " + response.statusCode());
+            }
+            try (InputStream in = new DigestInputStream(response.body(), sha256);
+                 OutputStream out = Files.newOutputStream(temp)) {
+                in.transferTo(out);
+            }
+
+            String key = PREFIX + Digests.hex(sha256.digest()) + ".txt";
+            // Same content, same key: a document staged before (by any task) is uploaded only once
+            if (!aws.exists(key)) {
+                aws.uploadFile(key, temp);
+            }
+            if (indexKey != null) {
+                try (BlobOutputStream index = aws.openUploadStream(indexKey)) {
+                    index.write(key.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            Metrics.histogram("manager.stage.document").recordSince(start);
+            Metrics.counter("manager.stage.documents").increment();
+            System.out.printf("[DEBUG] DocumentStager: %s -> %s (%d bytes)%n", url, key, Files.size(temp));
+            return key;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[WARN] couldn't stage " + url + ", workers will fetch it themselves: " + e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    // The staged key recorded under indexKey, if that copy still exists
+    private String stagedBefore(String indexKey) {
+        if (!aws.exists(indexKey)) {
+            return null;
+        }
+        try (InputStream in = aws.openDownloadStream(indexKey)) {
+            String key = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+            return aws.exists(key) ? key : null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[WARN] unreadable staging index " + indexKey + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
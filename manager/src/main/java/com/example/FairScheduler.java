@@ -0,0 +1,159 @@
+package com.example;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which ready task the dispatcher serves next.
+ *
+ * Deficit round robin: whenever a task comes round it earns a quantum of jobs proportional to
+ * its weight (priority class weight × the task's own weight), and every job sent for it is
+ * charged against that. With the default weights an interactive task gets 8 batches through
+ * for every batch of a bulk task, however long the bulk task is. On top of the per-task
+ * windows, each client may only have {@code clientQuota} jobs in flight over all its tasks.
+ *
+ * Completion times are kept per priority class (last {@link #LATENCY_SAMPLES} tasks) for the
+ * p50/p99 report.
+ */
+class FairScheduler {
+
+    enum Priority {
+        INTERACTIVE(Integer.getInteger("manager.weight.interactive", 8)),
+        BATCH(Integer.getInteger("manager.weight.batch", 1));
+
+        final int weight;
+
+        Priority(int weight) {
+            this.weight = Math.max(1, weight);
+        }
+
+        /** The class the client asked for, otherwise by size: small inputs are interactive. */
+        static Priority of(String requested, int lines, int interactiveLines) {
+            if (requested != null) {
+                try {
+                    return valueOf(requested.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    System.err.println("[WARN] unknown priority " + requested + ", classifying by size");
+                }
+            }
+            return lines <= interactiveLines ? INTERACTIVE : BATCH;
+        }
+    }
+
+    static final int LATENCY_SAMPLES = 1024;
+
+    private final int quantum;
+    private final int clientQuota;
+
+    // Ready tasks in round robin order; guarded by this
+    private final ArrayDeque<TaskState> ready = new ArrayDeque<>();
+    private TaskState lastServed = null;
+
+    private final Map<String, AtomicInteger> clientInFlight = new ConcurrentHashMap<>();
+    private final Map<Priority, long[]> latencies = new EnumMap<>(Priority.class);
+    private final Map<Priority, Integer> latencyCounts = new EnumMap<>(Priority.class);
+
+    /**
+     * @param quantum     jobs a weight-1 task may send per round
+     * @param clientQuota jobs one client may have in flight over all its tasks
+     */
+    FairScheduler(int quantum, int clientQuota) {
+        this.quantum = Math.max(1, quantum);
+        this.clientQuota = clientQuota;
+        for (Priority p : Priority.values()) {
+            latencies.put(p, new long[LATENCY_SAMPLES]);
+            latencyCounts.put(p, 0);
+        }
+    }
+
+    /** Adds a task to the round. The task just served keeps its turn while it has deficit left. */
+    synchronized void offer(TaskState task) {
+        if (task == lastServed && task.deficit > 0) {
+            ready.addFirst(task);
+        } else {
+            // Unused deficit doesn't carry over to a later round, an overdraft does
+            task.deficit = Math.min(task.deficit, 0);
+            ready.addLast(task);
+        }
+        notifyAll();
+    }
+
+    /** Next task to send jobs for, or null if none became ready within the timeout. */
+    synchronized TaskState next(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (ready.isEmpty()) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return null;
+            }
+            wait(left);
+        }
+
+        while (true) {
+            TaskState task = ready.pollFirst();
+            if (task.deficit > 0) {
+                lastServed = task;
+                return task;
+            }
+            task.deficit += quantum * task.priority.weight * task.weight;
+            ready.addLast(task);
+        }
+    }
+
+    /** Jobs the task's client may still put in flight. */
+    int clientRoom(String client) {
+        return clientQuota - clientInFlight(client).get();
+    }
+
+    /** Called with the number of jobs just sent for the task. */
+    synchronized void charge(TaskState task, int jobs) {
+        task.deficit -= jobs;
+        clientInFlight(task.client).addAndGet(jobs);
+    }
+
+    /** Called for each result the collector gets back for the task. */
+    void completed(TaskState task) {
+        clientInFlight(task.client).decrementAndGet();
+    }
+
+    /** Records how long a whole task took, from arrival until its output was uploaded. */
+    synchronized void recordTaskTime(TaskState task, long millis) {
+        long[] samples = latencies.get(task.priority);
+        int count = latencyCounts.get(task.priority);
+        samples[count % LATENCY_SAMPLES] = millis;
+        latencyCounts.put(task.priority, count + 1);
+    }
+
+    /** e.g. "INTERACTIVE p50=1200ms p99=4100ms (n=37), BATCH p50=... " */
+    synchronized String latencySummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Priority p : Priority.values()) {
+            int n = Math.min(latencyCounts.get(p), LATENCY_SAMPLES);
+            if (n == 0) {
+                continue;
+            }
+            long[] sorted = Arrays.copyOf(latencies.get(p), n);
+            Arrays.sort(sorted);
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(p).append(" p50=").append(percentile(sorted, 50)).append("ms")
+              .append(" p99=").append(percentile(sorted, 99)).append("ms")
+              .append(" (n=").append(latencyCounts.get(p)).append(")");
+        }
+        return sb.toString();
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private AtomicInteger clientInFlight(String client) {
+        return clientInFlight.computeIfAbsent(client, c -> new AtomicInteger());
+    }
+}
@@ -0,0 +1,98 @@
+package com.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folds the input lines of a task that ask for different analyses of the same URL into one
+ * job with a "types=..." option, e.g. "POS\tu" and "DEPENDENCY\tu" become
+ * "POS\tu\ttypes=POS,DEPENDENCY". The worker downloads and parses the document once and sends
+ * one result line per type, so the task still gets one output line per input line.
+ * Each job also gets the (0-based) numbers of its input lines as "seq=0,4", one per type.
+ *
+ * Jobs are grouped in the order their URL first appears. Lines with the same URL but different
+ * options (e.g. a tier) stay separate jobs. Lines that don't parse are left out; their numbers
+ * are handed back so the manager can account for them without a round trip to a worker.
+ * Input files are lists of URLs, so holding one entry per distinct job in memory is fine.
+ */
+class JobGrouper {
+
+    private JobGrouper() {
+    }
+
+    /**
+     * Writes the grouped jobs of {@code input} to {@code grouped}, one per line. Like the
+     * dispatcher, it stops at the first empty line.
+     *
+     * @param invalidLines receives the numbers of the lines that don't parse
+     * @return the number of jobs written
+     */
+    static int group(Path input, Path grouped, List<Integer> invalidLines) throws IOException {
+        List<Group> jobs = new ArrayList<>();
+        Map<String, Group> byKey = new HashMap<>();
+
+        try (BufferedReader in = Files.newBufferedReader(input)) {
+            String line;
+            for (int number = 0; (line = in.readLine()) != null && !line.isEmpty(); number++) {
+                JobMessage job;
+                try {
+                    job = JobMessage.parse(line);
+                } catch (IllegalArgumentException e) {
+                    invalidLines.add(number);
+                    continue;
+                }
+                String key = job.forType("").toString();
+                Group group = byKey.get(key);
+                if (group == null) {
+                    group = new Group(job);
+                    byKey.put(key, group);
+                    jobs.add(group);
+                }
+                group.types.add(job.analysisType);
+                group.lineNumbers.add(String.valueOf(number));
+            }
+        }
+
+        try (BufferedWriter out = Files.newBufferedWriter(grouped)) {
+            for (Group group : jobs) {
+                out.write(group.toLine());
+                out.newLine();
+            }
+        }
+        return jobs.size();
+    }
+
+    private static class Group {
+        final JobMessage job;
+        final List<String> types = new ArrayList<>();
+        final List<String> lineNumbers = new ArrayList<>();
+
+        Group(JobMessage job) {
+            this.job = job;
+        }
+
+        String toLine() {
+            JobMessage first = job.forType(types.get(0));
+            if (types.size() > 1) {
+                first = first.withOption("types", String.join(",", types));
+            }
+            return first.withOption("seq", String.join(",", lineNumbers)).toString();
+        }
+    }
+
+    /** How many input lines, and so result lines, a job line stands for. */
+    static int linesOf(String jobLine) {
+        try {
+            return JobMessage.parse(jobLine).analysisTypes().size();
+        } catch (IllegalArgumentException e) {
+            return 1;
+        }
+    }
+}
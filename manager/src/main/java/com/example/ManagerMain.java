@@ -4,15 +4,25 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static com.example.AWS.*;
+import static com.example.QueueService.*;
 import static com.example.utils.*;
 
 
@@ -22,9 +32,12 @@ import java.util.List;
 
 class WorkersManager {
 
-    private final AWS aws;
+    private final CloudServices aws;
     private final int messagesPerWorker;  // n from the spec
-    private final int maxWorkers = 19;
+    private final int maxWorkers;
+    private final WorkerAutoscaler autoscaler;
+    private final WorkerActivity activity;
+    private boolean terminated = false;
 
     // All worker instance IDs we created from this manager
     private final List<String> workerInstanceIds = new ArrayList<>();
@@ -32,10 +45,26 @@ class WorkersManager {
     // The user-data script that will start WorkerMain on each worker EC2
     private final String workerUserDataScript;
 
-    public WorkersManager(AWS aws, int messagesPerWorker, String workerUserDataScript) {
+    public WorkersManager(CloudServices aws, int messagesPerWorker, String workerUserDataScript) {
         this.aws = aws;
         this.messagesPerWorker = messagesPerWorker;
         this.workerUserDataScript = workerUserDataScript;
+
+        WorkerAutoscaler.Config config = WorkerAutoscaler.Config.fromSystemProperties(messagesPerWorker);
+        this.maxWorkers = config.maxWorkers;
+        this.autoscaler = new WorkerAutoscaler(config, System::currentTimeMillis);
+        this.activity = new WorkerActivity(
+                Long.getLong("manager.autoscale.heartbeatStaleSeconds", 60), System::currentTimeMillis);
+    }
+
+    /** A worker's heartbeat: "<instance id>\t<jobs it holds>". */
+    public void heartbeat(String message) {
+        String[] fields = message.split("\t");
+        if (fields.length < 2 || !ManagerMain.isInteger(fields[1])) {
+            System.err.println("[WARN] WorkersManager: bad heartbeat " + message);
+            return;
+        }
+        activity.heartbeat(fields[0], Integer.parseInt(fields[1]));
     }
 
     /**
@@ -68,15 +97,53 @@ class WorkersManager {
 
         List<String> newIds = aws.createWorkerInstances(workerUserDataScript, toCreate);
         workerInstanceIds.addAll(newIds);
+        autoscaler.noteScaled();
 
         System.out.printf("[DEBUG] WorkersManager: total workers now = %d\n", workerInstanceIds.size());
     }
 
+    /**
+     * Called periodically while tasks run. Grows the fleet when the worker queue backs up
+     * and shrinks it again when the backlog drains, instead of only growing per new task.
+     * Only workers whose heartbeats say they hold no job are removed (newest first), so
+     * shrinking never throws away a parse in progress; with every worker busy it waits for
+     * the next round.
+     */
+    public synchronized void autoscale(int backlog, long completedJobs) {
+        if (terminated) {
+            return;
+        }
+        int currentWorkers = workerInstanceIds.size();
+        int desiredWorkers = autoscaler.decide(backlog, currentWorkers, completedJobs);
+        if (desiredWorkers == currentWorkers) {
+            return;
+        }
+
+        System.out.printf("[DEBUG] WorkersManager: autoscale %d -> %d workers (backlog=%d, rate=%.2f jobs/worker/s)\n",
+                currentWorkers, desiredWorkers, backlog, autoscaler.jobsPerWorkerSecond());
+
+        if (desiredWorkers > currentWorkers) {
+            workerInstanceIds.addAll(
+                    aws.createWorkerInstances(workerUserDataScript, desiredWorkers - currentWorkers));
+        } else {
+            List<String> idle = activity.idle(workerInstanceIds, currentWorkers - desiredWorkers);
+            if (idle.isEmpty()) {
+                System.out.println("[DEBUG] WorkersManager: every worker is busy, not scaling down yet");
+                autoscaler.noteNotScaled();
+                return;
+            }
+            aws.terminateInstances(idle);
+            workerInstanceIds.removeAll(idle);
+            idle.forEach(activity::forget);
+        }
+    }
+
     /**
      * Terminate all worker instances we’ve created and tracked.
      * Call this once you know all tasks are done (termination message flow).
      */
     public synchronized void terminateAll() {
+        terminated = true;
         if (workerInstanceIds.isEmpty()) {
             System.out.println("[DEBUG] WorkersManager: no workers to terminate.");
             return;
@@ -102,20 +169,60 @@ class TaskState {
     final Path inputPath;
     final Path outputPath;
 
+    // Key of the task's output in S3. With -Dmanager.streamOutput (default) the output is written
+    // straight into a multipart upload of it, otherwise to outputPath and uploaded at the end.
+    final String outputKey = "Output" + System.currentTimeMillis() + ".txt";
+    BlobOutputStream outputUpload = null;
+
     final AtomicInteger linesSent = new AtomicInteger(0);
     final AtomicInteger linesReceived = new AtomicInteger(0);
+    // Jobs whose send failed; their lines are already in linesSent, so the dispatcher sends them first
+    final Queue<String> unsentJobs = new ConcurrentLinkedQueue<>();
+
+    // Writes results in input order (see ReorderBuffer); only used on the task's writer lane
+    ReorderBuffer reorderBuffer = null;
+    // Number of the next input line, for jobs the dispatcher sends without grouping
+    int nextLineNumber = 0;
+
+    // Worker-queue messages this task may still put in flight; the dispatcher spends them,
+    // the collector gives one back per result. May dip below zero when a line becomes shards.
+    final AtomicInteger credits;
+    // True while the task sits in the dispatcher's ready queue
+    final AtomicBoolean queued = new AtomicBoolean(false);
+    // Set once by the writer lane that sees the last result
+    final AtomicBoolean finished = new AtomicBoolean(false);
+
+    // Scheduling: who sent the task, its class and weight, and its deficit (owned by FairScheduler)
+    final String client;
+    final FairScheduler.Priority priority;
+    final int weight;
+    final long startedAt = System.currentTimeMillis();
+    int deficit = 0;
 
     volatile boolean sendingFinished = false;  // true when reader hit EOF
     int totalLines; // optional, if you know it in advance
 
-    TaskState(String outputQueueName, Path _inputPath, Path _outputPath) {
+    TaskState(String outputQueueName, Path _inputPath, Path _outputPath, int window,
+              String client, FairScheduler.Priority priority, int weight) {
         this.outputQueueName = outputQueueName;
+        this.credits = new AtomicInteger(window);
+        this.client = client;
+        this.priority = priority;
+        this.weight = Math.max(1, weight);
         this.inputPath = _inputPath;
         this.outputPath = _outputPath;
 
         try {
             this.inputReader = Files.newBufferedReader(_inputPath);
-            this.outputWriter = Files.newBufferedWriter(_outputPath);
+            if (ManagerMain.STREAM_OUTPUT) {
+                // Full parts are uploaded on the output upload threads while the lane keeps writing
+                this.outputUpload = ManagerMain.aws.openUploadStream(outputKey, ManagerMain.uploadExecutor);
+                this.outputWriter = new BufferedWriter(new OutputStreamWriter(outputUpload, StandardCharsets.UTF_8));
+            } else {
+                this.outputWriter = Files.newBufferedWriter(_outputPath);
+            }
+            this.reorderBuffer = new ReorderBuffer(outputWriter,
+                    _outputPath.resolveSibling(_outputPath.getFileName() + ".spill"), ManagerMain.REORDER_BUFFER_LINES);
 
         }catch(IOException e){
             System.err.println("[ERROR] cant create a task because " +e.getMessage());
@@ -123,12 +230,35 @@ class TaskState {
 
     }
 
+    // Next line, read one ahead so EOF is noticed together with the last line rather than on
+    // a later dispatcher pass, which may never come once the task's window is full
+    private String lookahead = null;
+
+    /** The line the next readNextLine() returns, without taking it (null at the end). */
+    String peekNextLine() {
+        if (sendingFinished || inputReader == null) return null;
+
+        try {
+            if (lookahead == null) {
+                lookahead = inputReader.readLine();
+            }
+            return lookahead;
+        } catch (IOException e) {
+            System.err.println("[ERROR] reading input for " + outputQueueName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
     String readNextLine() {
         if (sendingFinished || inputReader == null) return null;
 
         try {
-            String line = inputReader.readLine();
-            if (line == null || line.equals("")) {
+            String line = lookahead != null ? lookahead : inputReader.readLine();
+            lookahead = null;
+            if (line != null && !line.equals("")) {
+                lookahead = inputReader.readLine();
+            }
+            if (line == null || line.equals("") || lookahead == null || lookahead.equals("")) {
                 sendingFinished = true;
                 inputReader.close();
             }
@@ -140,28 +270,66 @@ class TaskState {
         }
     }
 
-    /** Called only from collector thread */
-    void writeResultLine(String processedLine) {
-        if (outputWriter == null) return;
+    /**
+     * Called only from the task's writer lane. Takes the result for input line {@code lineNumber}
+     * ({@code processedLine} null for a failed line) and writes it once the lines before it are
+     * written; a result without a line number is written right away. Repeated deliveries of a
+     * line are ignored.
+     */
+    void writeResultLine(Integer lineNumber, String processedLine) {
+        // A late duplicate after the output was finished
+        if (outputWriter == null || finished.get()) return;
 
         try {
-            outputWriter.write(processedLine);
-            outputWriter.newLine();
+            if (lineNumber == null) {
+                if (processedLine != null) {
+                    outputWriter.write(processedLine);
+                    outputWriter.newLine();
+                }
+            } else if (!reorderBuffer.add(lineNumber, processedLine)) {
+                Metrics.counter("manager.results.duplicate").increment();
+                return;
+            }
             linesReceived.incrementAndGet();
         } catch (IOException e) {
             System.err.println("[ERROR] writing output for " + outputQueueName + ": " + e.getMessage());
         }
     }
 
-    /** Called when you detect task is complete */
-    void finishAndClose() {
+    /** Called only from the task's writer lane, once the last result is in: writes out what the reorder buffer holds */
+    void flushResults() {
+        if (reorderBuffer == null) return;
+
+        try {
+            if (reorderBuffer.spilled() > 0) {
+                System.out.println("[DEBUG] " + outputQueueName + ": " + reorderBuffer.spilled() +
+                        " results were spilled to disk while waiting for earlier lines");
+            }
+            reorderBuffer.finish();
+        } catch (IOException e) {
+            System.err.println("[ERROR] writing output for " + outputQueueName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Called when you detect task is complete. Closing a streamed output sends its last part and
+     * completes the upload.
+     *
+     * @return false if the output couldn't be written completely
+     */
+    boolean finishAndClose() {
         try {
             if (outputWriter != null) {
                 outputWriter.flush();
                 outputWriter.close();
             }
+            return true;
         } catch (IOException e) {
             System.err.println("[ERROR] closing writer for " + outputQueueName + ": " + e.getMessage());
+            if (outputUpload != null) {
+                outputUpload.abort();
+            }
+            return false;
         }
     }
 
@@ -174,9 +342,9 @@ class TaskState {
 
 public class ManagerMain {
 
-    final static String localPath = "/home/ec2-user/";
+    final static String localPath = System.getProperty("ass1.manager.dir", "/home/ec2-user/");
 
-    final static AWS aws = AWS.getInstance();
+    final static CloudServices aws = CloudServices.getInstance();
 
     //queues
     final static String inputQueueName = "inputQueue";
@@ -190,6 +358,33 @@ public class ManagerMain {
 
     static private final Map<String, TaskState> tasks = new ConcurrentHashMap<>(); //localPcs output queues name to
 
+    // Max jobs one task may have in the worker queue at once (-Dmanager.taskWindow)
+    static final int TASK_WINDOW = Integer.getInteger("manager.taskWindow", 100);
+
+    // Tasks with at most this many lines are interactive unless the client says otherwise
+    static final int INTERACTIVE_LINES = Integer.getInteger("manager.interactiveLines", 100);
+
+    // Picks the next ready task: deficit round robin by weight, with a per-client in-flight quota
+    static final FairScheduler scheduler = new FairScheduler(MAX_BATCH_SIZE,
+            Integer.getInteger("manager.clientQuota", 400));
+
+    // Result intake: concurrent long polls (-Dmanager.collectorPolls) handled on a few threads
+    // (-Dmanager.collectorThreads), per-task writer lanes (-Dmanager.writerLanes) and output
+    // uploads (-Dmanager.uploadThreads)
+    static final int COLLECTOR_POLLS = Integer.getInteger("manager.collectorPolls", 16);
+    static final ExecutorService collectorExecutor = Executors.newFixedThreadPool(
+            Integer.getInteger("manager.collectorThreads", Math.max(2, Runtime.getRuntime().availableProcessors())),
+            r -> new Thread(r, "collectorThread"));
+    static final ExecutorService[] writerLanes = newWriterLanes(Integer.getInteger("manager.writerLanes",
+            Runtime.getRuntime().availableProcessors()));
+    static final ExecutorService uploadExecutor = Executors.newFixedThreadPool(
+            Integer.getInteger("manager.uploadThreads", 4), r -> new Thread(r, "output-upload"));
+
+    // Interactive jobs go to their own queue, which workers drain first
+    final static String workersPriorityQueueName = "ass1-worker-queue-priority";
+    // Workers report how many jobs they hold here, so the autoscaler only removes idle ones
+    final static String workerHeartbeatQueueName = "ass1-worker-heartbeats";
+
     private static volatile boolean terminate = false;
     private static volatile boolean isInit = false;
 
@@ -204,12 +399,48 @@ public class ManagerMain {
 
     static WorkersManager workersManager;
 
+    // Results received from workers, the autoscaler derives the processing rate from it
+    static final AtomicLong jobsCompleted = new AtomicLong();
+    static final long AUTOSCALE_INTERVAL_MS = Long.getLong("manager.autoscale.intervalSeconds", 15) * 1000;
+
+    // Jobs waiting in the worker queues, as last seen by the autoscaler (-1 = unknown). While it is
+    // above -Dmanager.fastTierBacklog (0 = never), parse jobs are sent with "tier=fast".
+    static volatile int workerBacklog = -1;
+    static final int FAST_TIER_BACKLOG = Integer.getInteger("manager.fastTierBacklog", 0);
+
+    static final boolean GROUP_JOBS = Boolean.parseBoolean(System.getProperty("manager.groupJobs", "true"));
+
+    // Results waiting for earlier lines that each task keeps in memory before spilling to disk
+    static final int REORDER_BUFFER_LINES = Integer.getInteger("manager.reorderBufferLines", 10_000);
+
+    // Task output goes into a multipart upload as it is written (parts of -Daws.uploadPartSizeMb)
+    // instead of a local file uploaded at the end
+    static final boolean STREAM_OUTPUT = Boolean.parseBoolean(System.getProperty("manager.streamOutput", "true"));
+
+    // Each distinct URL is copied once into S3 and workers read it from there (-Dmanager.stageDocuments)
+    static final boolean STAGE_DOCUMENTS = Boolean.parseBoolean(System.getProperty("manager.stageDocuments", "true"));
+    static final DocumentStager documentStager = new DocumentStager(aws, Integer.getInteger("manager.stageThreads", 8));
+    // Jobs for a document that is sharded wait up to this long for its staged copy (-Dmanager.stageWaitSeconds)
+    static final long STAGE_WAIT_MS = Long.getLong("manager.stageWaitSeconds", 30) * 1000;
+
+    // Documents larger than this many bytes are split into shards (-Dmanager.shardBytes, 0 = off)
+    static final ShardPlanner shardPlanner = new ShardPlanner(
+            Long.getLong("manager.shardBytes", 256 * 1024), Integer.getInteger("manager.maxShards", 32),
+            Integer.getInteger("manager.probeThreads", 8));
+    static final ShardMerger shardMerger = new ShardMerger(aws, Integer.getInteger("manager.mergeThreads", 4));
+
 
 
     public static void main(String[] args){
         terminate = false;
         isInit = false;
         aws.createSqsQueue(workersInputQueueName);
+        aws.createSqsQueue(workersPriorityQueueName);
+        aws.createSqsQueue(workerHeartbeatQueueName);
+
+        Metrics.gauge("manager.tasks", tasks::size);
+        Metrics.gauge("manager.workers", () -> isInit ? workersManager.getCurrentWorkerCount() : 0);
+        Metrics.startReporting("manager");
         aws.createSqsQueue(workersOutputQueueName);
 
         Thread pollerThread = new Thread(() -> {
@@ -234,7 +465,16 @@ public class ManagerMain {
                     }
                 }
                 if(message != null){
-                    String inputKey = message[0];
+                    // "inputKey[\tclient=...][\tpriority=...][\tweight=...]", older clients send just the key
+                    String[] request = message[0].split("\t");
+                    String inputKey = request[0];
+                    Map<String, String> options = new HashMap<>();
+                    for (int i = 1; i < request.length; i++) {
+                        int eq = request[i].indexOf('=');
+                        if (eq > 0) {
+                            options.put(request[i].substring(0, eq), request[i].substring(eq + 1));
+                        }
+                    }
                     String outputQueueName = message[1];
                     System.out.println("[DEBUG] File name:" + inputKey + ": " + outputQueueName);
                     long timeKey = System.currentTimeMillis();
@@ -246,103 +486,458 @@ public class ManagerMain {
                     aws.downloadFile(inputKey, inputPath);
                     int jobMessages = countLines(inputPath);
 
-                    TaskState task = new TaskState(outputQueueName, inputPath, outputPath);
+                    // Lines for the same URL become one job that is parsed once (-Dmanager.groupJobs)
+                    Path jobsPath = inputPath;
+                    int jobs = jobMessages;
+                    List<Integer> invalidLines = new ArrayList<>();
+                    if (GROUP_JOBS) {
+                        Path groupedPath = inputPath.resolveSibling(inputPath.getFileName() + ".grouped");
+                        try {
+                            jobs = JobGrouper.group(inputPath, groupedPath, invalidLines);
+                            jobsPath = groupedPath;
+                        } catch (IOException e) {
+                            invalidLines.clear();
+                            System.err.println("[WARN] couldn't group the jobs of " + inputKey + ": " + e.getMessage());
+                        }
+                    }
+
+                    prepareDocuments(jobsPath);
+
+                    TaskState task = new TaskState(outputQueueName, jobsPath, outputPath, TASK_WINDOW,
+                            options.getOrDefault("client", outputQueueName),
+                            FairScheduler.Priority.of(options.get("priority"), jobMessages, INTERACTIVE_LINES),
+                            isInteger(options.get("weight")) ? Integer.parseInt(options.get("weight")) : 1);
                     tasks.put(outputQueueName, task);
+                    if (!invalidLines.isEmpty()) {
+                        System.err.println("[WARN] " + invalidLines.size() + " line(s) of " + inputKey + " are not jobs");
+                        task.linesSent.addAndGet(invalidLines.size());
+                        writerLane(task).execute(() -> {
+                            for (int lineNumber : invalidLines) {
+                                task.writeResultLine(lineNumber, null);
+                            }
+                        });
+                    }
+                    scheduleIfReady(task);
 
-                    workersManager.ensureWorkersForNewJob(jobMessages);
+                    workersManager.ensureWorkersForNewJob(jobs);
 
                     System.out.println("Created task for queue " + outputQueueName +
-                            " with " + jobMessages + " lines.");
+                            " with " + jobMessages + " lines in " + jobs + " jobs.");
                 }
             }
         }, "pollerThread");
 
 
-        // 2) Dispatcher: round-robin send lines to workersInputQueue
+        // 2) Dispatcher: sends jobs for tasks that are ready, at most their credit window at a time
         Thread dispatcherThread = new Thread(() -> {
             while (!terminate || !tasks.isEmpty()) {
-                boolean anyActive = false;
-
-                for (TaskState task : tasks.values()) {
-                    if (task.sendingFinished || task.inputReader == null) {
-                        continue;
+                TaskState task;
+                try {
+                    task = scheduler.next(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (task == null) {
+                    continue;
+                }
+                task.queued.set(false);
+
+                // Read up to one SQS batch worth of jobs, within the task's and its client's credits,
+                // and send them in a single request. A large document may turn into several shard
+                // jobs, but still counts as one line.
+                int room = Math.min(task.credits.get(), scheduler.clientRoom(task.client));
+                List<String> batch = new ArrayList<>();
+                List<Integer> invalidLines = new ArrayList<>();
+                int lines = 0;
+                boolean waiting = false;
+                String unsentJob;
+                while (batch.size() < MAX_BATCH_SIZE && batch.size() < room
+                        && (unsentJob = task.unsentJobs.poll()) != null) {
+                    batch.add(unsentJob);
+                }
+                while (batch.size() < MAX_BATCH_SIZE && batch.size() < room && !task.sendingFinished) {
+                    // A line whose document is still being looked at waits, and brings the task
+                    // back to the scheduler once it is ready
+                    CompletableFuture<?> pending = pendingDocument(task.peekNextLine());
+                    if (pending != null) {
+                        waiting = true;
+                        pending.whenComplete((r, e) -> scheduleIfReady(task));
+                        break;
                     }
-                    anyActive = true;
-
                     String line = task.readNextLine();
-                    if(line != null && !line.equals("")){
-                        aws.sendJobMessage(workersInputQueueName, line, task.outputQueueName);
-                        task.linesSent.incrementAndGet();
-                    }
-                }
-                // If no active tasks, sleep a bit to avoid burning CPU
-                if (!anyActive) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
+                    if (line == null || line.equals("")) {
                         break;
                     }
-                }
-            }
-        }, "DispatcherThread");
-
-        Thread collectorThread = new Thread(() -> {
-
-            while(!terminate || !tasks.isEmpty()){
-                String[] message = aws.receiveJobAsync(workersOutputQueueName, 10);
-                if(message != null){
-                    String lineToWrite = message[0];
-                    String outQueue = message[1];
-
-                    TaskState task = tasks.get(outQueue);
-                    if (task == null) {
-                        System.err.println("[WARN] got result for unknown task " + outQueue);
+                    line = withLineNumbers(task, line);
+                    if (line == null) {
+                        // Not a job: counted as a failed line right here
+                        invalidLines.add(task.nextLineNumber - 1);
+                        lines++;
                         continue;
                     }
-                    if(!isErrorLine(lineToWrite)){
-                        System.out.println("writing: " + lineToWrite +" | to outputfile " + task.outputQueueName);
-                        task.writeResultLine(lineToWrite);
-                    }else{
-                       task.linesReceived.incrementAndGet();
+                    for (String job : shardPlanner.plan(line)) {
+                        batch.add(withBacklogTier(STAGE_DOCUMENTS ? documentStager.withStagedSource(job) : job));
                     }
-                    System.out.println("[DEBUG] Recived: "  + task.linesReceived.get()+ " lines");
-
-
+                    lines += JobGrouper.linesOf(line);
+                }
+                // Counted before sending, so a quick result can't make the task look complete
+                task.linesSent.addAndGet(lines);
+                if (!batch.isEmpty()) {
+                    // Charged up front and given back for jobs that don't go out, so the dispatcher
+                    // moves on to the next task while the batch is on its way
+                    task.credits.addAndGet(-batch.size());
+                    scheduler.charge(task, batch.size());
+                    String queue = task.priority == FairScheduler.Priority.INTERACTIVE
+                            ? workersPriorityQueueName : workersInputQueueName;
+                    long sendStart = System.nanoTime();
+                    aws.sendJobMessageBatchAsync(queue, batch, task.outputQueueName).whenComplete((unsent, error) -> {
+                        Metrics.histogram("manager.dispatch.batch").recordSince(sendStart);
+                        if (error != null) {
+                            System.err.println("[ERROR] sending jobs for " + task.outputQueueName + ": " + error.getMessage());
+                        }
+                        int sent = error == null ? batch.size() - unsent.size() : 0;
+                        Metrics.counter("manager.jobs.dispatched").add(sent);
+                        if (sent < batch.size()) {
+                            System.err.println("[WARN] only " + sent + " of " + batch.size() +
+                                    " jobs were sent for " + task.outputQueueName + ", sending the rest again");
+                            // Their lines are counted already, so they must still go out for the task to complete
+                            task.unsentJobs.addAll(error == null ? unsent : batch);
+                            task.credits.addAndGet(batch.size() - sent);
+                            scheduler.charge(task, sent - batch.size());
+                            scheduleIfReady(task);
+                        }
+                    });
+                }
+                // Also checked once the input is used up, in case no result is outstanding
+                if (!invalidLines.isEmpty() || task.sendingFinished) {
+                    writerLane(task).execute(() -> {
+                        for (int lineNumber : invalidLines) {
+                            task.writeResultLine(lineNumber, null);
+                        }
+                        completeIfDone(task);
+                    });
+                }
 
-                    if(task.sendingFinished && task.linesSent.get() == task.linesReceived.get()){
-                        task.finishAndClose();
-                        String fileKey = "Output" + System.currentTimeMillis() + ".txt";
-                        aws.uploadFileAndNotifyPc(fileKey, task.outputPath, task.outputQueueName);
-                        tasks.remove(outQueue);
-                        System.out.println("Finished writing: " + fileKey + " to outputfile " + task.outputQueueName);
-                    }
+                // Back of the line, so tasks take turns; a task out of credits waits for the collector
+                if (!waiting) {
+                    scheduleIfReady(task);
                 }
             }
-            workersManager.terminateAll();
-
+        }, "DispatcherThread");
 
-        }, "collectorThread");
+        // 3) Collector: COLLECTOR_POLLS async long polls kept outstanding on the results queue,
+        //    handled on the collector executor; each result is written on its task's writer lane
+        //    and finished outputs are uploaded on the upload executor
+        List<CompletableFuture<Void>> resultPolls = new ArrayList<>();
 
+        // Resizes the worker fleet from the worker queue depth and the observed throughput
+        Thread autoscalerThread = new Thread(() -> {
+            while (!terminate || !tasks.isEmpty()) {
+                try {
+                    Thread.sleep(AUTOSCALE_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (isInit) {
+                    drainHeartbeats();
+                    int depth = aws.approximateDepth(workersInputQueueName);
+                    int priorityDepth = aws.approximateDepth(workersPriorityQueueName);
+                    workerBacklog = depth < 0 || priorityDepth < 0 ? -1 : depth + priorityDepth;
+                    workersManager.autoscale(workerBacklog, jobsCompleted.get());
+                }
+            }
+        }, "autoscalerThread");
+        autoscalerThread.setDaemon(true);
 
         pollerThread.start();
         dispatcherThread.start();
-        collectorThread.start();
+        autoscalerThread.start();
+        for (int i = 0; i < COLLECTOR_POLLS; i++) {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            resultPolls.add(done);
+            pollResults(done);
+        }
 
         // block main so it doesn't just exit
         try {
             pollerThread.join();
             dispatcherThread.join();
-            collectorThread.join();
+            CompletableFuture.allOf(resultPolls.toArray(new CompletableFuture[0])).join();
+            collectorExecutor.shutdown();
+            // Every task was removed after its upload, so lanes and uploads are idle by now
+            for (ExecutorService lane : writerLanes) {
+                lane.shutdown();
+            }
+            uploadExecutor.shutdown();
+            uploadExecutor.awaitTermination(1, TimeUnit.MINUTES);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        workersManager.terminateAll();
 
 
 
 
 
 
+    }
+
+    // Hands every heartbeat that arrived since the last round to the workers manager
+    private static void drainHeartbeats() {
+        List<String[]> heartbeats;
+        do {
+            heartbeats = aws.receiveJobsBatch(workerHeartbeatQueueName, MAX_BATCH_SIZE, 0);
+            for (String[] heartbeat : heartbeats) {
+                workersManager.heartbeat(heartbeat[0]);
+            }
+        } while (heartbeats.size() == MAX_BATCH_SIZE);
+    }
+
+    /** Keeps one long poll on the results queue outstanding until the manager is done. */
+    private static void pollResults(CompletableFuture<Void> done) {
+        if (terminate && tasks.isEmpty()) {
+            done.complete(null);
+            return;
+        }
+        aws.receiveJobsBatchAsync(workersOutputQueueName, MAX_BATCH_SIZE, 10)
+                .whenCompleteAsync((messages, error) -> {
+                    if (error != null) {
+                        System.err.println("[ERROR] receiving results: " + error.getMessage());
+                        // Back off a little instead of hammering a failing endpoint
+                        CompletableFuture.runAsync(() -> pollResults(done),
+                                CompletableFuture.delayedExecutor(1, TimeUnit.SECONDS, collectorExecutor));
+                        return;
+                    }
+                    for (String[] message : messages) {
+                        collectResult(message[0], message[1]);
+                    }
+                    pollResults(done);
+                }, collectorExecutor);
+    }
+
+    /**
+     * Handles one worker result on a collector thread. Credits are given back right away; the
+     * write and the completion check run on the task's writer lane, so each task's output is
+     * written by one thread at a time while different tasks are written in parallel.
+     */
+    static void collectResult(String resultLine, String outQueue) {
+        jobsCompleted.incrementAndGet();
+        Metrics.counter("manager.results").increment();
+
+        TaskState task = tasks.get(outQueue);
+        if (task == null) {
+            System.err.println("[WARN] got result for unknown task " + outQueue);
+            return;
+        }
+        // Every result message frees a slot in the task's window, shard or not,
+        // and in its client's quota, which the client's other tasks may be waiting on
+        task.credits.incrementAndGet();
+        scheduler.completed(task);
+        for (TaskState sibling : tasks.values()) {
+            if (sibling.client.equals(task.client)) {
+                scheduleIfReady(sibling);
+            }
+        }
+
+        // A grouped job reports one line per analysis type. Shard results only count once
+        // every shard of the document has arrived, and are written when the merge is done.
+        List<String> lines = new ArrayList<>();
+        for (String line : resultLine.split("\n")) {
+            if (ShardMerger.isShardResult(line)) {
+                shardMerger.accept(line, merged -> writeResultLines(task, List.of(merged)));
+            } else {
+                lines.add(line);
+            }
+        }
+        if (!lines.isEmpty()) {
+            writeResultLines(task, lines);
+        }
+    }
+
+    private static void writeResultLines(TaskState task, List<String> lines) {
+        long queuedAt = System.nanoTime();
+        writerLane(task).execute(() -> {
+            // Collector lag: how long results wait for their task's writer lane
+            Metrics.histogram("manager.writerLane.wait").recordSince(queuedAt);
+            for (String line : lines) {
+                task.writeResultLine(lineNumberOf(line), isErrorLine(line) ? null : withoutLineNumber(line));
+            }
+            completeIfDone(task);
+        });
+    }
+
+    /** On the task's writer lane: closes the output and uploads it once every line has a result. */
+    private static void completeIfDone(TaskState task) {
+        if (task.sendingFinished && task.linesSent.get() == task.linesReceived.get()
+                && task.finished.compareAndSet(false, true)) {
+            task.flushResults();
+            uploadExecutor.execute(() -> uploadOutput(task));
+        }
+    }
+
+    // The "seq=<n>" field of a result line (the ERROR text at the end of an ERROR line aside), or null
+    static Integer lineNumberOf(String resultLine) {
+        String[] fields = resultLine.split("\t");
+        int end = isErrorLine(resultLine) ? fields.length - 1 : fields.length;
+        for (int i = 1; i < end; i++) {
+            if (fields[i].startsWith("seq=")) {
+                try {
+                    return Integer.parseInt(fields[i].substring("seq=".length()));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    static String withoutLineNumber(String resultLine) {
+        return resultLine.replaceFirst("\tseq=\\d+", "");
+    }
+
+    private static void uploadOutput(TaskState task) {
+        try {
+            String fileKey = task.outputKey;
+            long uploadStart = System.nanoTime();
+            // A streamed output only has its last part left to send
+            boolean written = task.finishAndClose();
+            if (!written) {
+                System.err.println("[ERROR] output of " + task.outputQueueName + " is incomplete, not sending it");
+                sendError(task, "the output couldn't be written");
+                return;
+            }
+            if (task.outputUpload != null) {
+                aws.sendMessage(task.outputQueueName, fileKey);
+            } else {
+                aws.uploadFileAndNotifyPc(fileKey, task.outputPath, task.outputQueueName);
+            }
+            Metrics.histogram("manager.output.upload").recordSince(uploadStart);
+            System.out.println("Finished writing: " + fileKey + " to outputfile " + task.outputQueueName);
+        } catch (RuntimeException e) {
+            System.err.println("[ERROR] uploading output of " + task.outputQueueName + ": " + e.getMessage());
+            sendError(task, "uploading the output failed: " + e.getMessage());
+        } finally {
+            tasks.remove(task.outputQueueName);
+            scheduler.recordTaskTime(task, System.currentTimeMillis() - task.startedAt);
+            System.out.println("[INFO] " + task.priority + " task " + task.outputQueueName +
+                    " took " + (System.currentTimeMillis() - task.startedAt) + "ms; " +
+                    scheduler.latencySummary());
+        }
+    }
+
+    // Tells the client its task failed ("ERROR\t<reason>" instead of the output key), so it doesn't wait forever
+    private static void sendError(TaskState task, String reason) {
+        try {
+            aws.sendMessage(task.outputQueueName, "ERROR\t" + reason);
+        } catch (RuntimeException e) {
+            System.err.println("[ERROR] couldn't notify " + task.outputQueueName + ": " + e.getMessage());
+        }
+    }
+
+    private static ExecutorService writerLane(TaskState task) {
+        return writerLanes[Math.floorMod(task.outputQueueName.hashCode(), writerLanes.length)];
+    }
+
+    private static ExecutorService[] newWriterLanes(int count) {
+        ExecutorService[] lanes = new ExecutorService[Math.max(1, count)];
+        for (int i = 0; i < lanes.length; i++) {
+            String name = "writer-lane-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(r -> new Thread(r, name));
+        }
+        return lanes;
+    }
+
+    /** Hands the task to the scheduler if it has input left, credits, client quota, and isn't queued already. */
+    static void scheduleIfReady(TaskState task) {
+        if ((!task.sendingFinished || !task.unsentJobs.isEmpty()) && task.credits.get() > 0 && scheduler.clientRoom(task.client) > 0
+                && task.queued.compareAndSet(false, true)) {
+            scheduler.offer(task);
+        }
+    }
+
+    // Starts probing (for sharding) and staging the documents of a task's jobs in the background
+    static void prepareDocuments(Path jobsPath) {
+        try (BufferedReader in = Files.newBufferedReader(jobsPath)) {
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                try {
+                    String url = JobMessage.parse(line).url;
+                    shardPlanner.probe(url);
+                    if (STAGE_DOCUMENTS) {
+                        documentStager.stage(url);
+                    }
+                } catch (IllegalArgumentException ignored) {
+                    // Sent as is, the worker reports it
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] couldn't prepare the documents of " + jobsPath + ": " + e.getMessage());
+        }
+    }
+
+    // What the dispatcher has to wait for before it can plan the line (its document's length, and
+    // for a sharded document its staged copy, so the shards don't all go to the origin), or null
+    // when the line can go now
+    static CompletableFuture<?> pendingDocument(String line) {
+        if (line == null || line.isEmpty()) {
+            return null;
+        }
+        try {
+            String url = JobMessage.parse(line).url;
+            CompletableFuture<Long> length = shardPlanner.probe(url);
+            if (!length.isDone()) {
+                return length;
+            }
+            return STAGE_DOCUMENTS && shardPlanner.shards(length.join())
+                    ? documentStager.pending(url, STAGE_WAIT_MS) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Tags a job line the grouper didn't number with the task's next input line number(s).
+     * Returns null for a line that isn't a job.
+     */
+    static String withLineNumbers(TaskState task, String line) {
+        JobMessage job;
+        try {
+            job = JobMessage.parse(line);
+        } catch (IllegalArgumentException e) {
+            task.nextLineNumber++;
+            return null;
+        }
+        if (job.option("seq") != null) {
+            return line;
+        }
+        List<String> numbers = new ArrayList<>();
+        for (int i = 0; i < job.analysisTypes().size(); i++) {
+            numbers.add(String.valueOf(task.nextLineNumber++));
+        }
+        return job.withOption("seq", String.join(",", numbers)).toString();
+    }
+
+    /**
+     * Under a deep backlog, asks for the FAST parser tier on parse jobs that didn't pick a tier,
+     * trading some accuracy for throughput until the workers catch up.
+     */
+    static String withBacklogTier(String job) {
+        if (FAST_TIER_BACKLOG <= 0 || workerBacklog <= FAST_TIER_BACKLOG) {
+            return job;
+        }
+        try {
+            JobMessage message = JobMessage.parse(job);
+            if (message.option("tier") != null
+                    || message.analysisTypes().stream().allMatch(type -> type.trim().equalsIgnoreCase("POS"))) {
+                return job;
+            }
+            return message.withOption("tier", "fast").toString();
+        } catch (IllegalArgumentException e) {
+            // Malformed lines are passed on unchanged, the worker reports them
+            return job;
+        }
     }
 
     public static boolean isErrorLine(String s) {
@@ -378,11 +973,24 @@ public class ManagerMain {
             mkdir -p /opt/worker
             cd /opt/worker
 
-            # Download worker.jar from S3
-            aws s3 cp s3://ass1-packages/worker.jar worker.jar
+            # Download the worker from S3: the jar with its class-data-sharing archive when it was
+            # built with -Pappcds (the tarball keeps the jar's timestamp, which the archive checks),
+            # otherwise just the jar
+            JAVA_OPTS=""
+            if aws s3 cp s3://ass1-packages/worker-appcds.tar.gz worker-appcds.tar.gz; then
+                tar xzf worker-appcds.tar.gz
+                JAVA_OPTS="-XX:SharedArchiveFile=worker.jsa -Xshare:auto"
+            else
+                aws s3 cp s3://ass1-packages/worker.jar worker.jar
+            fi
+
+            # The worker names itself by its instance id in its heartbeats (IMDSv2)
+            TOKEN=$(curl -s -X PUT http://169.254.169.254/latest/api/token -H "X-aws-ec2-metadata-token-ttl-seconds: 60")
+            INSTANCE_ID=$(curl -s -H "X-aws-ec2-metadata-token: $TOKEN" http://169.254.169.254/latest/meta-data/instance-id)
+            JAVA_OPTS="$JAVA_OPTS -Dworker.id=$INSTANCE_ID"
 
             # Run the worker in background
-            nohup java -jar worker.jar >> worker.log 2>&1 &
+            nohup java $JAVA_OPTS -jar worker.jar >> worker.log 2>&1 &
             """;
     }
 
@@ -0,0 +1,244 @@
+package com.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Puts a task's results back into input order. Every result carries the number of its input
+ * line ("seq"); a result is written as soon as all lines before it are, otherwise it is held.
+ *
+ * At most {@code maxBuffered} held results are kept in memory. Beyond that they are written to
+ * a sorted run file ("seq\tline" per line) in {@code spillDir}, and the runs are read back
+ * sequentially, one line of lookahead each, as the gap before them fills. Runs are merged by
+ * size class: every {@value #MERGE_RUNS} runs of one class become a run of the next, so the
+ * number of open runs only grows with the log of the spilled data and a spilled line is
+ * rewritten once per class rather than on every merge; only a bit per input line is kept to
+ * recognise results that are delivered twice.
+ *
+ * Not thread safe; a task's results are added from its writer lane only.
+ */
+public class ReorderBuffer implements Closeable {
+
+    static final int MERGE_RUNS = 8;
+
+    private static final Comparator<Run> BY_HEAD = Comparator.comparingInt((Run r) -> r.headSeq);
+
+    private final Writer out;
+    private final Path spillDir;
+    private final int maxBuffered;
+
+    private final BitSet seen = new BitSet();
+    private final TreeMap<Integer, String> buffered = new TreeMap<>();
+    private final PriorityQueue<Run> runs = new PriorityQueue<>(BY_HEAD);
+    private int next = 0;
+    private int runFiles = 0;
+    private long spilled = 0;
+    private long rewritten = 0;
+
+    /** A sorted spill file, read one line ahead. */
+    private static class Run {
+        final int level;    // size class: a spill is 0, a merge of level n runs is n + 1
+        final Path file;
+        final BufferedReader reader;
+        int headSeq;
+        String headLine;
+
+        Run(int level, Path file) throws IOException {
+            this.level = level;
+            this.file = file;
+            this.reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        }
+
+        // false once the run is used up
+        boolean advance() throws IOException {
+            String line = reader.readLine();
+            if (line == null) {
+                return false;
+            }
+            int tab = line.indexOf('\t');
+            headSeq = Integer.parseInt(line.substring(0, tab));
+            headLine = tab == line.length() - 1 ? null : line.substring(tab + 1);
+            return true;
+        }
+
+        void discard() throws IOException {
+            reader.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public ReorderBuffer(Writer out, Path spillDir, int maxBuffered) {
+        this.out = out;
+        this.spillDir = spillDir;
+        this.maxBuffered = Math.max(1, maxBuffered);
+    }
+
+    /**
+     * Adds the result for input line {@code seq}; {@code line} is what goes into the output,
+     * or null for a line that produces none (a failed job).
+     *
+     * @return false if a result for this line was added before
+     */
+    public boolean add(int seq, String line) throws IOException {
+        if (seq < next || seen.get(seq)) {
+            return false;
+        }
+        seen.set(seq);
+        if (seq == next) {
+            emit(line);
+            drain();
+        } else {
+            buffered.put(seq, line);
+            if (buffered.size() > maxBuffered) {
+                spill();
+            }
+        }
+        return true;
+    }
+
+    /** Writes whatever is still held, in order, skipping lines that never got a result. */
+    public void finish() throws IOException {
+        while (!buffered.isEmpty() || !runs.isEmpty()) {
+            next = Math.min(buffered.isEmpty() ? Integer.MAX_VALUE : buffered.firstKey(),
+                    runs.isEmpty() ? Integer.MAX_VALUE : runs.peek().headSeq);
+            drain();
+        }
+        close();
+    }
+
+    /** Results held in memory. */
+    public int buffered() {
+        return buffered.size();
+    }
+
+    /** Results written to spill files so far. */
+    public long spilled() {
+        return spilled;
+    }
+
+    /** Spill files open right now. */
+    public int runs() {
+        return runs.size();
+    }
+
+    /** Spilled results written again when runs were merged. */
+    public long rewritten() {
+        return rewritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Run run : runs) {
+            run.discard();
+        }
+        runs.clear();
+        if (runFiles > 0) {
+            Files.deleteIfExists(spillDir);
+        }
+    }
+
+    private void drain() throws IOException {
+        while (true) {
+            if (!buffered.isEmpty() && buffered.firstKey() == next) {
+                emit(buffered.pollFirstEntry().getValue());
+            } else if (!runs.isEmpty() && runs.peek().headSeq == next) {
+                Run run = runs.poll();
+                emit(run.headLine);
+                if (run.advance()) {
+                    runs.add(run);
+                } else {
+                    run.discard();
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void emit(String line) throws IOException {
+        if (line != null) {
+            out.write(line);
+            out.write(System.lineSeparator());
+        }
+        next++;
+    }
+
+    private void spill() throws IOException {
+        Files.createDirectories(spillDir);
+        Path file = spillDir.resolve("run-" + (runFiles++) + ".txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Integer, String> entry : buffered.entrySet()) {
+                writeEntry(writer, entry.getKey(), entry.getValue());
+            }
+        }
+        spilled += buffered.size();
+        buffered.clear();
+        open(0, file);
+
+        // A merge may fill the next level up in turn
+        int level = 0;
+        while (compact(level)) {
+            level++;
+        }
+    }
+
+    // Merges the runs of one level into a single run of the next once there are MERGE_RUNS of
+    // them; runs of other levels aren't touched. Returns whether it merged.
+    private boolean compact(int level) throws IOException {
+        PriorityQueue<Run> merging = new PriorityQueue<>(BY_HEAD);
+        for (Run run : runs) {
+            if (run.level == level) {
+                merging.add(run);
+            }
+        }
+        if (merging.size() < MERGE_RUNS) {
+            return false;
+        }
+        runs.removeAll(merging);
+
+        Path file = spillDir.resolve("run-" + (runFiles++) + ".txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            while (!merging.isEmpty()) {
+                Run run = merging.poll();
+                writeEntry(writer, run.headSeq, run.headLine);
+                rewritten++;
+                if (run.advance()) {
+                    merging.add(run);
+                } else {
+                    run.discard();
+                }
+            }
+        }
+        open(level + 1, file);
+        return true;
+    }
+
+    private void open(int level, Path file) throws IOException {
+        Run run = new Run(level, file);
+        if (run.advance()) {
+            runs.add(run);
+        } else {
+            run.discard();
+        }
+    }
+
+    private static void writeEntry(BufferedWriter writer, int seq, String line) throws IOException {
+        writer.write(Integer.toString(seq));
+        writer.write('\t');
+        if (line != null) {
+            writer.write(line);
+        }
+        writer.newLine();
+    }
+}
@@ -0,0 +1,219 @@
+package com.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Collects the per-shard results of a sharded document and, once every shard has
+ * reported, concatenates the shard outputs in order into one analysis object.
+ *
+ * Workers number sentences from 1 inside their shard, so the "=== SENTENCE n ===" and
+ * "### ERROR parsing sentence n" markers are shifted by the sentence count of the earlier shards.
+ *
+ * Results are recorded under a lock per document, and the merge itself (downloading and
+ * re-uploading every shard) runs on the merger's own threads, so collectors never wait for it.
+ * Each shard counts once however often it is delivered, and a shard delivered again after its
+ * document was merged is dropped.
+ */
+class ShardMerger {
+
+    private static final Pattern SENTENCE_HEADER = Pattern.compile("^=== SENTENCE (\\d+) ===$");
+    private static final Pattern SENTENCE_ERROR = Pattern.compile("^### ERROR parsing sentence (\\d+):(.*)$");
+
+    // Recently merged documents remembered to drop late duplicates
+    private static final int MAX_FINISHED = 10_000;
+
+    private final CloudServices aws;
+    private final ExecutorService pool;
+    private final Map<String, ShardGroup> groups = new ConcurrentHashMap<>();
+    private final Set<String> finished = Collections.synchronizedSet(Collections.newSetFromMap(
+            new LinkedHashMap<String, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_FINISHED;
+                }
+            }));
+
+    private static class ShardGroup {
+        final String[] outputKeys;
+        final int[] sentenceCounts;
+        final BitSet arrived = new BitSet();
+        String url;
+        String analysisType;
+        String sequence = null;   // the "seq=<n>" field, passed on to the merged line
+        String error = null;
+
+        ShardGroup(int count) {
+            outputKeys = new String[count];
+            sentenceCounts = new int[count];
+        }
+    }
+
+    ShardMerger(CloudServices aws, int threads) {
+        this.aws = aws;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "shard-merge");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    static boolean isShardResult(String resultLine) {
+        return resultLine != null && resultLine.contains("\tshard=");
+    }
+
+    /**
+     * Records one shard result (success or ERROR line). Once every shard of the document has
+     * arrived, {@code done} gets the line for the task summary: "<INPUT_URL>\t<OUTPUT_S3_URL>\t<TYPE>[\tseq=<n>]"
+     * for the merged object, or an ERROR line. It is called at most once per document, on a merger
+     * thread (or right away for a line that isn't a shard result or for a failed document).
+     */
+    void accept(String resultLine, Consumer<String> done) {
+        String[] fields = resultLine.split("\\t");
+
+        String[] shardParts = null;
+        int sentences = 0;
+        String sequence = null;
+        for (String field : fields) {
+            if (field.startsWith("seq=")) {
+                sequence = field;
+            } else if (field.startsWith("shard=")) {
+                shardParts = field.substring("shard=".length()).split(":");
+            } else if (field.startsWith("sentences=")) {
+                sentences = Integer.parseInt(field.substring("sentences=".length()));
+            }
+        }
+        if (shardParts == null || shardParts.length < 3) {
+            done.accept(resultLine);
+            return;
+        }
+
+        String group = shardParts[0];
+        int index = Integer.parseInt(shardParts[1]);
+        int count = Integer.parseInt(shardParts[2]);
+
+        // A grouped job's shards carry several types (each with its input line); each is merged separately.
+        // Success: "<URL>\t<S3_URL>\t<TYPE>...", ERROR: "ERROR\t<TYPE>\t<URL>..."
+        String groupKey = group + "\t" + (resultLine.startsWith("ERROR") ? fields[1] : fields[2])
+                + (sequence == null ? "" : "\t" + sequence);
+        ShardGroup g = groups.computeIfAbsent(groupKey, k -> new ShardGroup(count));
+        synchronized (g) {
+            // The document is marked finished before its group is removed, so a late duplicate
+            // that made a fresh group here still sees it
+            if (finished.contains(groupKey)) {
+                groups.remove(groupKey, g);
+                System.out.println("[DEBUG] ShardMerger: dropping late shard " + index + " of " + groupKey);
+                return;
+            }
+            if (index < 0 || index >= g.outputKeys.length || g.arrived.get(index)) {
+                // Duplicate delivery of a shard we already have
+                return;
+            }
+            g.arrived.set(index);
+            g.sequence = sequence;
+            if (resultLine.startsWith("ERROR")) {
+                // "ERROR\t<TYPE>\t<URL>\t...\t<error>"
+                if (g.error == null) {
+                    g.error = resultLine;
+                }
+            } else {
+                g.url = fields[0];
+                g.analysisType = fields[2];
+                g.outputKeys[index] = keyOf(fields[1]);
+                g.sentenceCounts[index] = sentences;
+            }
+
+            if (g.arrived.cardinality() < g.outputKeys.length) {
+                return;
+            }
+            finished.add(groupKey);
+            groups.remove(groupKey, g);
+        }
+
+        if (g.error != null) {
+            done.accept(g.error);
+            return;
+        }
+        pool.execute(() -> {
+            String line;
+            try {
+                line = merge(g);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[ERROR] merging shards of " + g.url + ": " + e.getMessage());
+                line = "ERROR\t" + g.analysisType + "\t" + g.url + sequenceField(g) + "\tmerge failed: " + e.getMessage();
+            }
+            done.accept(line);
+        });
+    }
+
+    private String merge(ShardGroup g) throws IOException {
+        String filename = g.url.substring(g.url.lastIndexOf('/') + 1);
+        String mergedKey = "analysis/" + filename + "." + g.analysisType + ".analysis.txt";
+
+        BlobOutputStream upload = aws.openUploadStream(mergedKey);
+        try {
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(upload, StandardCharsets.UTF_8));
+            int offset = 0;
+            for (int i = 0; i < g.outputKeys.length; i++) {
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                        aws.openDownloadStream(g.outputKeys[i]), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        out.write(renumber(line, offset));
+                        out.newLine();
+                    }
+                }
+                offset += g.sentenceCounts[i];
+            }
+            out.flush();
+            upload.close();
+        } catch (IOException | RuntimeException e) {
+            upload.abort();
+            throw e;
+        }
+
+        System.out.printf("[DEBUG] ShardMerger: merged %d shard(s) of %s into %s%n",
+                g.outputKeys.length, g.url, mergedKey);
+        return g.url + "\ts3://" + aws.getBucketName() + "/" + mergedKey + "\t" + g.analysisType + sequenceField(g);
+    }
+
+    private static String sequenceField(ShardGroup g) {
+        return g.sequence == null ? "" : "\t" + g.sequence;
+    }
+
+    private static String renumber(String line, int offset) {
+        if (offset == 0 || line.isEmpty()) {
+            return line;
+        }
+        Matcher m = SENTENCE_HEADER.matcher(line);
+        if (m.matches()) {
+            return "=== SENTENCE " + (Integer.parseInt(m.group(1)) + offset) + " ===";
+        }
+        m = SENTENCE_ERROR.matcher(line);
+        if (m.matches()) {
+            return "### ERROR parsing sentence " + (Integer.parseInt(m.group(1)) + offset) + ":" + m.group(2);
+        }
+        return line;
+    }
+
+    // "s3://bucket/some/key" -> "some/key"
+    private static String keyOf(String s3Url) {
+        int slash = s3Url.indexOf('/', "s3://".length());
+        return slash < 0 ? s3Url : s3Url.substring(slash + 1);
+    }
+}
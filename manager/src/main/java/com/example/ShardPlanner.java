@@ -0,0 +1,120 @@
+package com.example;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits a job for a large document into byte-range shard jobs, so one big book is parsed
+ * by several workers at once. The size is taken from a HEAD request; documents that are
+ * small, of unknown size, or whose server does not accept ranges stay a single job.
+ *
+ * The HEAD requests run on the planner's own threads, started by {@link #probe} when a task
+ * arrives, and their results are kept per URL; {@link #plan} only looks the length up.
+ */
+class ShardPlanner {
+
+    // Document lengths remembered, least recently used dropped first
+    private static final int MAX_LENGTHS = 10_000;
+
+    private final long shardBytes;   // target bytes per shard, 0 = sharding disabled
+    private final int maxShards;
+    private final ExecutorService pool;
+
+    private final AtomicLong groupIds = new AtomicLong(0);
+
+    // URL -> Content-Length if the server supports byte ranges, -1 otherwise
+    private final Map<String, CompletableFuture<Long>> lengths = Collections.synchronizedMap(
+            new LinkedHashMap<String, CompletableFuture<Long>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Long>> eldest) {
+                    return size() > MAX_LENGTHS;
+                }
+            });
+
+    ShardPlanner(long shardBytes, int maxShards, int threads) {
+        this.shardBytes = shardBytes;
+        this.maxShards = maxShards;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "shard-probe");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts probing the document's length unless it is known (or being probed) already.
+     *
+     * @return the length, -1 for a document that won't be sharded; done right away when
+     *         sharding is off or the URL isn't HTTP
+     */
+    CompletableFuture<Long> probe(String url) {
+        if (shardBytes <= 0 || !url.startsWith("http://") && !url.startsWith("https://")) {
+            return CompletableFuture.completedFuture(-1L);
+        }
+        return lengths.computeIfAbsent(url, u -> CompletableFuture.supplyAsync(() -> probeRangeableLength(u), pool));
+    }
+
+    /** Whether a document of this (probed) length is split into shards. */
+    boolean shards(long length) {
+        return shardBytes > 0 && length > shardBytes;
+    }
+
+    /**
+     * Never blocks: a document whose length isn't known yet is sent as a single job, so callers
+     * wait for {@link #probe} first.
+     *
+     * @return the job messages to send for one input line (the line itself when not sharded)
+     */
+    List<String> plan(String line) {
+        List<String> jobs = new ArrayList<>();
+
+        JobMessage job;
+        try {
+            job = JobMessage.parse(line);
+        } catch (IllegalArgumentException e) {
+            // Let the worker report the bad line like any other failed job
+            jobs.add(line);
+            return jobs;
+        }
+
+        long length = probe(job.url).getNow(-1L);
+        if (!shards(length)) {
+            jobs.add(line);
+            return jobs;
+        }
+
+        int count = (int) Math.min(maxShards, (length + shardBytes - 1) / shardBytes);
+        long size = (length + count - 1) / count;
+        String group = System.currentTimeMillis() + "-" + groupIds.incrementAndGet();
+
+        for (int i = 0; i < count; i++) {
+            long start = i * size;
+            long end = Math.min(length, start + size) - 1;
+            Shard shard = new Shard(group, i, count, start, end);
+            jobs.add(job.withOption("shard", shard.toString()).toString());
+        }
+
+        System.out.printf("[DEBUG] ShardPlanner: %s (%d bytes) -> %d shard(s), group %s%n",
+                job.url, length, count, group);
+        return jobs;
+    }
+
+    // Content-Length of the document if the server supports byte ranges, -1 otherwise
+    private static long probeRangeableLength(String urlStr) {
+        try {
+            DocumentHead head = DocumentHead.fetch(urlStr);
+            return head == null || !head.acceptsRanges ? -1 : head.contentLength;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[WARN] ShardPlanner: HEAD " + urlStr + " failed: " + e.getMessage());
+            return -1;
+        }
+    }
+}
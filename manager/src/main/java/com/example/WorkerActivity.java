@@ -0,0 +1,68 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * What each worker last said about itself. Workers send a heartbeat with the number of jobs
+ * they hold every few seconds, so the fleet shrinks by workers that have nothing to do instead
+ * of by whichever were launched last. Pure logic, the clock is injected like in
+ * {@link WorkerAutoscaler}.
+ *
+ * A worker is busy while its last heartbeat is recent and reports jobs. One that never
+ * reported (still booting) or went quiet for {@code staleSeconds} (crashed, its jobs go back
+ * to the queue anyway) can be terminated as well as one that reports none.
+ */
+public class WorkerActivity {
+
+    private static class Report {
+        final long time;
+        final int jobs;
+
+        Report(long time, int jobs) {
+            this.time = time;
+            this.jobs = jobs;
+        }
+    }
+
+    private final long staleMillis;
+    private final LongSupplier clockMillis;
+    private final Map<String, Report> reports = new HashMap<>();
+
+    public WorkerActivity(long staleSeconds, LongSupplier clockMillis) {
+        this.staleMillis = staleSeconds * 1000;
+        this.clockMillis = clockMillis;
+    }
+
+    /** Records a heartbeat: the worker holds {@code jobs} jobs right now. */
+    public synchronized void heartbeat(String instanceId, int jobs) {
+        reports.put(instanceId, new Report(clockMillis.getAsLong(), jobs));
+    }
+
+    /** Drops what is known about a terminated worker. */
+    public synchronized void forget(String instanceId) {
+        reports.remove(instanceId);
+    }
+
+    public synchronized boolean isBusy(String instanceId) {
+        Report report = reports.get(instanceId);
+        return report != null && report.jobs > 0 && clockMillis.getAsLong() - report.time <= staleMillis;
+    }
+
+    /**
+     * @return up to {@code count} of {@code instanceIds} that aren't busy, the last ones
+     *         (the newest workers) first
+     */
+    public synchronized List<String> idle(List<String> instanceIds, int count) {
+        List<String> idle = new ArrayList<>();
+        for (int i = instanceIds.size() - 1; i >= 0 && idle.size() < count; i--) {
+            if (!isBusy(instanceIds.get(i))) {
+                idle.add(instanceIds.get(i));
+            }
+        }
+        return idle;
+    }
+}
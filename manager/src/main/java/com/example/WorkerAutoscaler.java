@@ -0,0 +1,159 @@
+package com.example;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Decides how many workers the fleet should have, from the worker-queue backlog and the
+ * observed processing rate. Pure logic: the clock is injected, and the caller passes in the
+ * backlog, the current fleet size and the running count of completed jobs, so the policy
+ * can be tested against a simulated clock and queue.
+ *
+ * Policy:
+ *   - no backlog                → scale to minWorkers
+ *   - rate not known yet        → one worker per jobsPerWorker queued jobs (the client's n)
+ *   - rate known                → enough workers to drain the backlog in targetDrainSeconds,
+ *                                 but no new workers if the current fleet drains the backlog
+ *                                 before a new instance would have finished booting
+ *   - result clamped to [minWorkers, maxWorkers]; scale-ups and scale-downs each respect
+ *     their own cooldown since the last change in the same direction or the other.
+ */
+public class WorkerAutoscaler {
+
+    public static class Config {
+        public int minWorkers = 0;
+        public int maxWorkers = 19;
+        public int jobsPerWorker = 50;
+        public long bootSeconds = 90;
+        public long targetDrainSeconds = 300;
+        public long scaleUpCooldownSeconds = 60;
+        public long scaleDownCooldownSeconds = 300;
+
+        /** Defaults overridden by -Dmanager.autoscale.* system properties. */
+        public static Config fromSystemProperties(int jobsPerWorker) {
+            Config c = new Config();
+            c.jobsPerWorker = jobsPerWorker;
+            c.minWorkers = Integer.getInteger("manager.autoscale.minWorkers", c.minWorkers);
+            c.maxWorkers = Integer.getInteger("manager.autoscale.maxWorkers", c.maxWorkers);
+            c.bootSeconds = Long.getLong("manager.autoscale.bootSeconds", c.bootSeconds);
+            c.targetDrainSeconds = Long.getLong("manager.autoscale.targetDrainSeconds", c.targetDrainSeconds);
+            c.scaleUpCooldownSeconds = Long.getLong("manager.autoscale.upCooldownSeconds", c.scaleUpCooldownSeconds);
+            c.scaleDownCooldownSeconds = Long.getLong("manager.autoscale.downCooldownSeconds",
+                    c.scaleDownCooldownSeconds);
+            return c;
+        }
+    }
+
+    // Weight of the newest rate sample in the moving average
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final Config config;
+    private final LongSupplier clockMillis;
+
+    private double jobsPerWorkerSecond = 0;   // 0 = not measured yet
+    private long lastSampleTime = -1;
+    private long lastCompleted = 0;
+    private long lastChangeTime = Long.MIN_VALUE / 2;
+    private long previousChangeTime = Long.MIN_VALUE / 2;
+
+    public WorkerAutoscaler(Config config, LongSupplier clockMillis) {
+        this.config = config;
+        this.clockMillis = clockMillis;
+    }
+
+    /**
+     * @param backlog        jobs waiting or in flight on the worker queue (negative = unknown)
+     * @param currentWorkers workers running or booting
+     * @param completedJobs  total jobs completed so far (monotonic)
+     * @return the number of workers the fleet should have now
+     */
+    public synchronized int decide(int backlog, int currentWorkers, long completedJobs) {
+        long now = clockMillis.getAsLong();
+        sampleRate(now, currentWorkers, completedJobs);
+
+        if (backlog < 0) {
+            return currentWorkers;
+        }
+
+        int target = target(backlog, currentWorkers);
+        if (target > currentWorkers && now - lastChangeTime < config.scaleUpCooldownSeconds * 1000) {
+            return currentWorkers;
+        }
+        if (target < currentWorkers && now - lastChangeTime < config.scaleDownCooldownSeconds * 1000) {
+            return currentWorkers;
+        }
+        if (target != currentWorkers) {
+            previousChangeTime = lastChangeTime;
+            lastChangeTime = now;
+        }
+        return target;
+    }
+
+    /**
+     * Tells the policy the change it just decided on wasn't made (e.g. every worker was busy),
+     * so its cooldown doesn't hold off the next attempt.
+     */
+    public synchronized void noteNotScaled() {
+        lastChangeTime = previousChangeTime;
+    }
+
+    /** Tells the policy the fleet was changed outside of {@link #decide} (restarts the cooldowns). */
+    public synchronized void noteScaled() {
+        lastChangeTime = clockMillis.getAsLong();
+    }
+
+    public synchronized double jobsPerWorkerSecond() {
+        return jobsPerWorkerSecond;
+    }
+
+    private int target(int backlog, int currentWorkers) {
+        if (backlog == 0) {
+            return clamp(config.minWorkers);
+        }
+
+        int needed;
+        if (jobsPerWorkerSecond <= 0) {
+            needed = (int) Math.ceil(backlog / (double) Math.max(1, config.jobsPerWorker));
+        } else {
+            needed = (int) Math.ceil(backlog / (jobsPerWorkerSecond * config.targetDrainSeconds));
+
+            // Workers launched now only start helping after bootSeconds
+            double drainSecondsNow = currentWorkers == 0
+                    ? Double.POSITIVE_INFINITY
+                    : backlog / (jobsPerWorkerSecond * currentWorkers);
+            if (needed > currentWorkers && drainSecondsNow <= config.bootSeconds) {
+                needed = currentWorkers;
+            }
+        }
+        // Someone has to take the jobs that are there
+        return clamp(Math.max(1, needed));
+    }
+
+    private void sampleRate(long now, int currentWorkers, long completedJobs) {
+        if (lastSampleTime < 0) {
+            lastSampleTime = now;
+            lastCompleted = completedJobs;
+            return;
+        }
+
+        long elapsed = now - lastSampleTime;
+        long done = completedJobs - lastCompleted;
+        if (elapsed < 1000 || currentWorkers == 0) {
+            return;
+        }
+        lastSampleTime = now;
+        lastCompleted = completedJobs;
+
+        // Idle periods say nothing about how fast workers are
+        if (done <= 0) {
+            return;
+        }
+        double sample = done / (elapsed / 1000.0) / currentWorkers;
+        jobsPerWorkerSecond = jobsPerWorkerSecond <= 0
+                ? sample
+                : RATE_SMOOTHING * sample + (1 - RATE_SMOOTHING) * jobsPerWorkerSecond;
+    }
+
+    private int clamp(int workers) {
+        return Math.max(config.minWorkers, Math.min(config.maxWorkers, workers));
+    }
+}
@@ -0,0 +1,161 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import com.example.ReorderBuffer;
+
+public class ReorderBufferTest {
+
+    private final StringWriter out = new StringWriter();
+
+    private Path spillDir() throws IOException {
+        return Files.createTempDirectory("reorder-test").resolve("spill");
+    }
+
+    private List<String> written() {
+        List<String> lines = new ArrayList<>();
+        for (String line : out.toString().split(System.lineSeparator())) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> lines(int from, int to) {
+        List<String> lines = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            lines.add("line " + i);
+        }
+        return lines;
+    }
+
+    /**
+     * Results that arrive in order are written right away, nothing is held.
+     */
+    @Test
+    public void testInOrderIsWrittenRightAway() throws IOException {
+        ReorderBuffer buffer = new ReorderBuffer(out, spillDir(), 10);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(buffer.add(i, "line " + i));
+            assertEquals(lines(0, i + 1), written());
+            assertEquals(0, buffer.buffered());
+        }
+        buffer.finish();
+        assertEquals(lines(0, 5), written());
+    }
+
+    /**
+     * A result waits for the lines before it, then goes out with every held line after it.
+     */
+    @Test
+    public void testOutOfOrderWaitsForTheGap() throws IOException {
+        ReorderBuffer buffer = new ReorderBuffer(out, spillDir(), 10);
+        buffer.add(2, "line 2");
+        buffer.add(1, "line 1");
+        buffer.add(4, "line 4");
+        assertEquals(List.of(), written());
+        assertEquals(3, buffer.buffered());
+
+        buffer.add(0, "line 0");
+        assertEquals(lines(0, 3), written());
+        assertEquals(1, buffer.buffered());
+
+        buffer.add(3, "line 3");
+        assertEquals(lines(0, 5), written());
+        assertEquals(0, buffer.buffered());
+    }
+
+    /**
+     * Past the memory limit held results go to spill files, and still come out in order;
+     * the spill directory is gone afterwards.
+     */
+    @Test
+    public void testSpillsPastTheLimit() throws IOException {
+        Path spillDir = spillDir();
+        ReorderBuffer buffer = new ReorderBuffer(out, spillDir, 3);
+        for (int i = 20; i >= 1; i--) {
+            buffer.add(i, "line " + i);
+            assertTrue(buffer.buffered() <= 3);
+        }
+        assertTrue(buffer.spilled() > 0);
+        assertEquals(List.of(), written());
+
+        buffer.add(0, "line 0");
+        buffer.finish();
+        assertEquals(lines(0, 21), written());
+        assertFalse(Files.exists(spillDir));
+    }
+
+    /**
+     * Many spills are merged level by level: the open runs stay few, each spilled line is
+     * rewritten only a few times, and the output is complete and in order.
+     */
+    @Test
+    public void testCompactsRunsByLevel() throws IOException {
+        int count = 5000;
+        List<Integer> order = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(42));
+
+        ReorderBuffer buffer = new ReorderBuffer(out, spillDir(), 4);
+        int maxRuns = 0;
+        for (int seq : order) {
+            buffer.add(seq, "line " + seq);
+            maxRuns = Math.max(maxRuns, buffer.runs());
+        }
+        // ~1250 spills: 4 levels of at most 7 runs each
+        assertTrue("open runs: " + maxRuns, maxRuns <= 4 * 7 + 1);
+        assertTrue("rewritten: " + buffer.rewritten(), buffer.rewritten() <= 4 * buffer.spilled());
+
+        buffer.add(0, "line 0");
+        buffer.finish();
+        assertEquals(lines(0, count), written());
+    }
+
+    /**
+     * A line delivered twice is dropped, whether it is still held, spilled or already written.
+     */
+    @Test
+    public void testDuplicatesAreDropped() throws IOException {
+        ReorderBuffer buffer = new ReorderBuffer(out, spillDir(), 1);
+        assertTrue(buffer.add(0, "line 0"));
+        assertFalse(buffer.add(0, "line 0 again"));
+
+        assertTrue(buffer.add(3, "line 3"));
+        assertTrue(buffer.add(2, "line 2"));   // spills
+        assertFalse(buffer.add(3, "line 3 again"));
+        assertFalse(buffer.add(2, "line 2 again"));
+
+        assertTrue(buffer.add(1, "line 1"));
+        buffer.finish();
+        assertEquals(lines(0, 4), written());
+    }
+
+    /**
+     * Failed lines (null) produce no output but let the lines after them through, also from
+     * a spill file; lines that never got a result are skipped at the end.
+     */
+    @Test
+    public void testErrorLinesAndGaps() throws IOException {
+        ReorderBuffer buffer = new ReorderBuffer(out, spillDir(), 1);
+        buffer.add(2, null);
+        buffer.add(3, "line 3");   // spills
+        buffer.add(6, "line 6");
+        buffer.add(0, "line 0");
+        buffer.add(1, null);
+        assertEquals(List.of("line 0", "line 3"), written());
+
+        buffer.finish();
+        assertEquals(List.of("line 0", "line 3", "line 6"), written());
+    }
+}
@@ -0,0 +1,69 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import com.example.WorkerActivity;
+
+public class WorkerActivityTest {
+
+    private long now = 0;
+
+    private WorkerActivity activity() {
+        return new WorkerActivity(60, () -> now);
+    }
+
+    /**
+     * Workers holding jobs are never picked; idle ones are, newest first.
+     */
+    @Test
+    public void testPicksIdleWorkersNewestFirst() {
+        WorkerActivity activity = activity();
+        activity.heartbeat("i-1", 0);
+        activity.heartbeat("i-2", 1);
+        activity.heartbeat("i-3", 0);
+        activity.heartbeat("i-4", 2);
+
+        assertEquals(List.of("i-3", "i-1"), activity.idle(List.of("i-1", "i-2", "i-3", "i-4"), 3));
+        assertEquals(List.of("i-3"), activity.idle(List.of("i-1", "i-2", "i-3", "i-4"), 1));
+    }
+
+    /**
+     * A worker that hasn't reported yet (booting) holds no job and can go.
+     */
+    @Test
+    public void testWorkerWithoutHeartbeatIsIdle() {
+        WorkerActivity activity = activity();
+        activity.heartbeat("i-1", 1);
+
+        assertEquals(List.of("i-2"), activity.idle(List.of("i-1", "i-2"), 2));
+    }
+
+    /**
+     * A busy worker that went quiet for longer than the stale time counts as gone.
+     */
+    @Test
+    public void testStaleBusyWorkerIsIdle() {
+        WorkerActivity activity = activity();
+        activity.heartbeat("i-1", 1);
+        now += 60_000;
+        assertTrue(activity.isBusy("i-1"));
+
+        now += 1;
+        assertFalse(activity.isBusy("i-1"));
+        assertEquals(List.of("i-1"), activity.idle(List.of("i-1"), 1));
+    }
+
+    /**
+     * The latest heartbeat wins.
+     */
+    @Test
+    public void testLatestHeartbeatWins() {
+        WorkerActivity activity = activity();
+        activity.heartbeat("i-1", 0);
+        activity.heartbeat("i-1", 3);
+        assertTrue(activity.isBusy("i-1"));
+
+        activity.heartbeat("i-1", 0);
+        assertFalse(activity.isBusy("i-1"));
+    }
+}
@@ -0,0 +1,140 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.example.WorkerAutoscaler;
+
+public class WorkerAutoscalerTest {
+
+    private long now = 0;
+
+    private WorkerAutoscaler autoscaler(WorkerAutoscaler.Config config) {
+        return new WorkerAutoscaler(config, () -> now);
+    }
+
+    private static WorkerAutoscaler.Config config() {
+        WorkerAutoscaler.Config c = new WorkerAutoscaler.Config();
+        c.minWorkers = 0;
+        c.maxWorkers = 10;
+        c.jobsPerWorker = 50;
+        c.bootSeconds = 90;
+        c.targetDrainSeconds = 300;
+        c.scaleUpCooldownSeconds = 60;
+        c.scaleDownCooldownSeconds = 300;
+        return c;
+    }
+
+    /**
+     * Before any job finished, the fleet is sized by the client's n (jobs per worker), capped at max.
+     */
+    @Test
+    public void testSizesByJobsPerWorkerUntilRateIsKnown() {
+        assertEquals(3, autoscaler(config()).decide(120, 0, 0));
+        assertEquals(10, autoscaler(config()).decide(5000, 0, 0));
+        assertEquals(0, autoscaler(config()).decide(0, 0, 0));
+    }
+
+    /**
+     * A backlog the current workers drain before a new instance could boot doesn't launch anything.
+     */
+    @Test
+    public void testNoScaleUpForBacklogShorterThanBootTime() {
+        WorkerAutoscaler.Config c = config();
+        c.targetDrainSeconds = 30;
+        WorkerAutoscaler scaler = autoscaler(c);
+        assertEquals(2, scaler.decide(100, 2, 0));
+        now += 10_000;
+        // 2 workers did 20 jobs in 10s → 1 job/worker/s; 100 jobs take 50s with them, less than a 90s boot
+        assertEquals(2, scaler.decide(100, 2, 20));
+    }
+
+    /**
+     * Once the rate is known, a long backlog gets enough workers to drain it in the target time.
+     */
+    @Test
+    public void testScalesUpToDrainInTargetTime() {
+        WorkerAutoscaler scaler = autoscaler(config());
+        scaler.decide(0, 2, 0);
+        now += 60_000;
+        // 2 workers did 120 jobs in 60s → 1 job/worker/s, 300s target → 3000 / 300 = 10 workers
+        assertEquals(10, scaler.decide(3000, 2, 120));
+    }
+
+    /**
+     * Scale-downs wait for their cooldown, then go to minWorkers when the queue is empty.
+     */
+    @Test
+    public void testScaleDownWaitsForCooldown() {
+        WorkerAutoscaler.Config c = config();
+        c.minWorkers = 1;
+        WorkerAutoscaler scaler = autoscaler(c);
+        assertEquals(4, scaler.decide(200, 0, 0));
+
+        now += 60_000;
+        assertEquals(4, scaler.decide(0, 4, 200));
+
+        now += 300_000;
+        assertEquals(1, scaler.decide(0, 4, 200));
+    }
+
+    /**
+     * A scale-down that couldn't be made (every worker busy) is tried again next round, not after a cooldown.
+     */
+    @Test
+    public void testScaleDownNotMadeIsRetried() {
+        WorkerAutoscaler scaler = autoscaler(config());
+        assertEquals(0, scaler.decide(0, 4, 0));
+        scaler.noteNotScaled();
+
+        now += 15_000;
+        assertEquals(0, scaler.decide(0, 4, 0));
+
+        // Made this time, so the cooldown applies again
+        now += 15_000;
+        assertEquals(4, scaler.decide(0, 4, 0));
+    }
+
+    /**
+     * Simulated queue and fleet: workers boot for 90s, then each does 1 job/s.
+     * Every job gets done, the fleet never goes over max, and it shrinks back to min once idle.
+     */
+    @Test
+    public void testSimulatedRunDrainsQueueAndShrinks() {
+        WorkerAutoscaler scaler = autoscaler(config());
+        List<Long> readyAt = new ArrayList<>(); // one entry per worker: when it starts taking jobs
+        int backlog = 0;
+        long completed = 0;
+        int maxSeen = 0;
+
+        for (int second = 0; second < 3600; second++) {
+            now = second * 1000L;
+            if (second == 0 || second == 600) {
+                backlog += 2000;
+            }
+
+            for (long ready : readyAt) {
+                if (backlog > 0 && ready <= now) {
+                    backlog--;
+                    completed++;
+                }
+            }
+
+            if (second % 15 == 0) {
+                int desired = scaler.decide(backlog, readyAt.size(), completed);
+                while (readyAt.size() < desired) {
+                    readyAt.add(now + 90_000);
+                }
+                while (readyAt.size() > desired) {
+                    readyAt.remove(readyAt.size() - 1);
+                }
+                maxSeen = Math.max(maxSeen, readyAt.size());
+            }
+        }
+
+        assertEquals(0, backlog);
+        assertEquals(4000, completed);
+        assertTrue(maxSeen <= 10);
+        assertEquals(0, readyAt.size());
+    }
+}
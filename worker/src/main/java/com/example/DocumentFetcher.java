@@ -0,0 +1,374 @@
+package com.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads documents for the worker over one shared {@link HttpClient} (pooled keep-alive
+ * connections, gzip), keeping them in a size-bounded LRU cache on disk.
+ *
+ * A cached document that was validated less than {@code freshMillis} ago is used without any
+ * request. After that it is revalidated with If-None-Match / If-Modified-Since: a 304 costs one
+ * round trip and no body, a 200 replaces the cached copy. If revalidation fails, the cached copy
+ * is used anyway. With the cache off, documents are streamed straight from the response and a
+ * shard is fetched with a Range request; with the cache on, the whole document is cached and
+ * shards are cut from the local copy.
+ *
+ *   -Dworker.documentCacheDir           cache directory (default: ass1-documents in the temp dir)
+ *   -Dworker.documentCacheMb=1024       size bound, least recently used documents go first (0 = off)
+ *   -Dworker.documentCacheFreshSeconds  how long a document is used without revalidation (default 300)
+ */
+public class DocumentFetcher {
+
+    private static final HttpClient HTTP = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    private static DocumentFetcher shared;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long freshMillis;
+
+    // Cached bodies by key, least recently used first, with their sizes; guarded by itself
+    private final LinkedHashMap<String, Long> lru = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    // One download or revalidation per document at a time
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    public DocumentFetcher(Path dir, long maxBytes, long freshMillis) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.freshMillis = freshMillis;
+        if (maxBytes > 0) {
+            Files.createDirectories(dir);
+            loadIndex();
+        }
+    }
+
+    /** The worker's fetcher, configured from the system properties. */
+    public static synchronized DocumentFetcher shared() throws IOException {
+        if (shared == null) {
+            Path dir = Paths.get(System.getProperty("worker.documentCacheDir",
+                    Paths.get(System.getProperty("java.io.tmpdir"), "ass1-documents").toString()));
+            long maxBytes = Long.getLong("worker.documentCacheMb", 1024) * 1024 * 1024;
+            long freshMillis = Long.getLong("worker.documentCacheFreshSeconds", 300) * 1000;
+            shared = new DocumentFetcher(dir, maxBytes, freshMillis);
+            Metrics.gauge("worker.documentCache.bytes", shared::cachedBytes);
+        }
+        return shared;
+    }
+
+    public boolean caching() {
+        return maxBytes > 0;
+    }
+
+    /** Opens a text document, or only the lines of one shard of it, as a line reader. */
+    public BufferedReader open(String url, Shard shard) throws IOException {
+        InputStream in;
+        if (!url.startsWith("http://") && !url.startsWith("https://")) {
+            in = new URL(url).openStream();
+            if (shard != null) {
+                in.skipNBytes(Math.max(0, shard.start - 1));
+            }
+        } else if (caching()) {
+            in = openCached(url);
+            if (shard != null) {
+                in.skipNBytes(Math.max(0, shard.start - 1));
+            }
+        } else {
+            in = stream(url, shard);
+        }
+        if (shard != null) {
+            in = new ShardInputStream(in, shard.start, shard.end);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    private InputStream openCached(String url) throws IOException {
+        try {
+            return Files.newInputStream(fetch(url));
+        } catch (NoSuchFileException e) {
+            // Evicted for another document between fetch and open
+            return Files.newInputStream(fetch(url));
+        }
+    }
+
+    /**
+     * The local copy of a document, downloaded or revalidated as needed.
+     * The file may be evicted later, so open it right away.
+     */
+    public Path fetch(String url) throws IOException {
+        String key = Digests.sha256Hex(url);
+        List<String> evicted = new ArrayList<>();
+        Path body;
+        synchronized (lockFor(key)) {
+            body = fetchLocked(url, key, evicted);
+        }
+        // Outside this document's lock: evict() takes the lock of each evicted one
+        evict(evicted);
+        return body;
+    }
+
+    private Path fetchLocked(String url, String key, List<String> evicted) throws IOException {
+        Path body = dir.resolve(key + ".body");
+        Properties validators = Files.exists(body) ? readMeta(dir.resolve(key + ".meta")) : null;
+        if (validators != null) {
+            long validatedAt = Long.parseLong(validators.getProperty("validatedAt", "0"));
+            if (System.currentTimeMillis() - validatedAt < freshMillis) {
+                Metrics.counter("worker.documentCache.fresh").increment();
+                touch(key, body);
+                return body;
+            }
+        }
+
+        try {
+            return download(url, key, validators, evicted);
+        } catch (IOException e) {
+            if (validators == null) {
+                throw e;
+            }
+            // Origin down, erroring or cut off: a stale copy beats failing the job
+            System.err.println("[WORKER] Revalidating " + url + " failed, using the cached copy: " + e.getMessage());
+            Metrics.counter("worker.documentCache.stale").increment();
+            touch(key, body);
+            return body;
+        }
+    }
+
+    // GET (conditional when there are validators) into the cache entry of 'key'
+    private Path download(String url, String key, Properties validators, List<String> evicted) throws IOException {
+        Path body = dir.resolve(key + ".body");
+        Path meta = dir.resolve(key + ".meta");
+
+        long fetchStart = System.nanoTime();
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(30))
+                .header("Accept-Encoding", "gzip");
+        if (validators != null) {
+            String etag = validators.getProperty("etag");
+            String lastModified = validators.getProperty("lastModified");
+            if (etag != null) {
+                request.header("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                request.header("If-Modified-Since", lastModified);
+            }
+        }
+
+        HttpResponse<InputStream> response;
+        try {
+            response = HTTP.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading " + url, e);
+        }
+
+        if (response.statusCode() == 304 && validators != null) {
+            response.body().close();
+            validators.setProperty("validatedAt", Long.toString(System.currentTimeMillis()));
+            writeMeta(meta, validators);
+            Metrics.counter("worker.documentCache.revalidated").increment();
+            Metrics.histogram("worker.download.fetch").recordSince(fetchStart);
+            touch(key, body);
+            return body;
+        }
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("GET " + url + " returned HTTP " + response.statusCode());
+        }
+
+        // Write next to the cache entry and move it in place, so readers of the old copy are unaffected
+        Path temp = Files.createTempFile(dir, key, ".part");
+        try (InputStream in = decoded(response); OutputStream out = Files.newOutputStream(temp)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, body, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Properties fresh = new Properties();
+        fresh.setProperty("url", url);
+        fresh.setProperty("validatedAt", Long.toString(System.currentTimeMillis()));
+        response.headers().firstValue("ETag").ifPresent(etag -> fresh.setProperty("etag", etag));
+        response.headers().firstValue("Last-Modified").ifPresent(lm -> fresh.setProperty("lastModified", lm));
+        writeMeta(meta, fresh);
+
+        Metrics.counter("worker.documentCache.miss").increment();
+        Metrics.histogram("worker.download.fetch").recordSince(fetchStart);
+        evicted.addAll(added(key, Files.size(body)));
+        return body;
+    }
+
+    private Object lockFor(String key) {
+        return locks.computeIfAbsent(key, k -> new Object());
+    }
+
+    public long cachedBytes() {
+        synchronized (lru) {
+            return totalBytes;
+        }
+    }
+
+    // Uncached: the response body (or one byte range of it) as a stream
+    private static InputStream stream(String url, Shard shard) throws IOException {
+        long openStart = System.nanoTime();
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofSeconds(30));
+        long from = 0;
+        if (shard == null) {
+            request.header("Accept-Encoding", "gzip");
+        } else {
+            // Ranges are byte offsets of the plain document, so no compression here.
+            // Start one byte early: ShardInputStream needs it to tell whether a line starts at 'start'.
+            from = Math.max(0, shard.start - 1);
+            request.header("Range", "bytes=" + from + "-");
+        }
+
+        HttpResponse<InputStream> response;
+        try {
+            response = HTTP.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading " + url, e);
+        }
+        if (response.statusCode() != 200 && response.statusCode() != 206) {
+            response.body().close();
+            throw new IOException("GET " + url + " returned HTTP " + response.statusCode());
+        }
+        InputStream in = decoded(response);
+        if (shard != null && response.statusCode() != 206) {
+            // Server ignored the range and sent the whole document
+            in.skipNBytes(from);
+        }
+        // Connect until the response headers; the body is read while parsing
+        Metrics.histogram("worker.download.open").recordSince(openStart);
+        return in;
+    }
+
+    private static InputStream decoded(HttpResponse<InputStream> response) throws IOException {
+        boolean gzip = response.headers().firstValue("Content-Encoding")
+                .map(encoding -> encoding.equalsIgnoreCase("gzip")).orElse(false);
+        return gzip ? new GZIPInputStream(response.body()) : response.body();
+    }
+
+    private void touch(String key, Path body) {
+        synchronized (lru) {
+            lru.get(key);
+        }
+        // Keeps the LRU order across restarts
+        try {
+            Files.setLastModifiedTime(body, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Records a cached body; returns the keys evicted to make room, for evict()
+    private List<String> added(String key, long size) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (lru) {
+            Long previous = lru.put(key, size);
+            totalBytes += size - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> eldest = lru.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                totalBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        return evicted;
+    }
+
+    // Deletes evicted entries, each under its own lock so no fetch of it is reading or writing the
+    // files meanwhile. Call it without holding any document's lock.
+    private void evict(List<String> evicted) {
+        for (String old : evicted) {
+            synchronized (lockFor(old)) {
+                synchronized (lru) {
+                    if (lru.containsKey(old)) {
+                        // Fetched again since it was evicted: the files are the new copy
+                        continue;
+                    }
+                }
+                // A reader that has the file open keeps its copy
+                try {
+                    Files.deleteIfExists(dir.resolve(old + ".body"));
+                    Files.deleteIfExists(dir.resolve(old + ".meta"));
+                } catch (IOException e) {
+                    System.err.println("[WORKER] Couldn't evict cached document " + old + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Documents cached by an earlier run, oldest use first
+    private void loadIndex() throws IOException {
+        try (DirectoryStream<Path> partial = Files.newDirectoryStream(dir, "*.part")) {
+            for (Path part : partial) {
+                Files.deleteIfExists(part);
+            }
+        }
+        List<Path> bodies = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.body")) {
+            files.forEach(bodies::add);
+        }
+        bodies.sort(Comparator.comparing(p -> p.toFile().lastModified()));
+        for (Path body : bodies) {
+            String name = body.getFileName().toString();
+            evict(added(name.substring(0, name.length() - ".body".length()), Files.size(body)));
+        }
+        if (!bodies.isEmpty()) {
+            System.out.printf("[WORKER] Document cache: %d document(s), %d bytes in %s%n",
+                    lru.size(), totalBytes, dir);
+        }
+    }
+
+    private static Properties readMeta(Path meta) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(meta)) {
+            properties.load(in);
+            return properties;
+        } catch (IOException e) {
+            // No validators: fetch the document again
+            return null;
+        }
+    }
+
+    private static void writeMeta(Path meta, Properties properties) throws IOException {
+        try (OutputStream out = Files.newOutputStream(meta)) {
+            properties.store(out, null);
+        }
+    }
+}
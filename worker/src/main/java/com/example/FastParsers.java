@@ -0,0 +1,84 @@
+package com.example;
+
+import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.parser.nndep.DependencyParser;
+import edu.stanford.nlp.parser.shiftreduce.ShiftReduceParser;
+import edu.stanford.nlp.trees.GrammaticalStructure;
+import edu.stanford.nlp.trees.Tree;
+
+import java.util.List;
+
+/**
+ * Models of the {@link ParserTier#FAST} tier, both working on tagged sentences:
+ *
+ *   - constituency: shift-reduce parser, -Dworker.srModel
+ *     (default englishSR.ser.gz from the stanford-srparser models jar, a dependency of the worker)
+ *   - dependency:   neural transition-based parser, -Dworker.nndepModel
+ *     (default english_UD.gz from the CoreNLP models jar)
+ *
+ * Each model is loaded on first use; if it can't be loaded, {@link #available} is false and
+ * callers fall back to the PCFG (see {@link StanfordAnalysis#effectiveTier}), caching and
+ * counting those results as PCFG ones.
+ */
+final class FastParsers {
+
+    private static final String SR_MODEL = System.getProperty("worker.srModel",
+            "edu/stanford/nlp/models/srparser/englishSR.ser.gz");
+    private static final String NNDEP_MODEL = System.getProperty("worker.nndepModel",
+            DependencyParser.DEFAULT_MODEL);
+
+    private FastParsers() {
+    }
+
+    private static final class ShiftReduceHolder {
+        static final ShiftReduceParser PARSER = load();
+
+        private static ShiftReduceParser load() {
+            try {
+                ShiftReduceParser parser = ShiftReduceParser.loadModel(SR_MODEL);
+                System.out.println("[WORKER] FAST constituency parsing uses " + SR_MODEL);
+                return parser;
+            } catch (RuntimeException e) {
+                System.err.println("[WORKER] Shift-reduce model " + SR_MODEL +
+                        " not available, FAST constituency jobs use the PCFG: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    private static final class NeuralDependencyHolder {
+        static final DependencyParser PARSER = load();
+
+        private static DependencyParser load() {
+            try {
+                DependencyParser parser = DependencyParser.loadFromModelFile(NNDEP_MODEL);
+                System.out.println("[WORKER] FAST dependency parsing uses " + NNDEP_MODEL);
+                return parser;
+            } catch (RuntimeException e) {
+                System.err.println("[WORKER] Neural dependency model " + NNDEP_MODEL +
+                        " not available, FAST dependency jobs use the PCFG: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    /** Whether the FAST model for the analysis type (CONSTITUENCY or DEPENDENCY) could be loaded. */
+    static boolean available(String type) {
+        switch (type) {
+            case "CONSTITUENCY":
+                return ShiftReduceHolder.PARSER != null;
+            case "DEPENDENCY":
+                return NeuralDependencyHolder.PARSER != null;
+            default:
+                return false;
+        }
+    }
+
+    static Tree constituency(List<TaggedWord> tagged) {
+        return ShiftReduceHolder.PARSER.apply(tagged);
+    }
+
+    static GrammaticalStructure dependencies(List<TaggedWord> tagged) {
+        return NeuralDependencyHolder.PARSER.predict(tagged);
+    }
+}
@@ -0,0 +1,123 @@
+package com.example;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the jobs a worker is processing invisible in the queue while they make progress.
+ *
+ * Every third of the visibility timeout, each held message gets a fresh visibility timeout,
+ * as long as its own job reported progress within the last {@code stallSeconds}. A job that
+ * stops making progress (a stuck parse, a hung download) is no longer extended, so its
+ * message becomes visible again and another worker can take it, even while other jobs of
+ * the same worker keep going.
+ */
+public class LeaseKeeper {
+
+    /** Progress of one held job, reported by whoever works on it. */
+    public static final class Progress {
+        private final AtomicLong count = new AtomicLong();
+        private volatile boolean waiting;
+
+        /** The job moved on (read or wrote some of its document). */
+        public void advance() {
+            count.incrementAndGet();
+        }
+
+        /** While waiting for a free slot a job isn't expected to move, so it can't stall. */
+        public void waiting(boolean waiting) {
+            this.waiting = waiting;
+        }
+    }
+
+    // A held message, and its progress count when last seen moving
+    private static final class Held {
+        final Progress progress = new Progress();
+        long lastCount;
+        long lastMoved = System.currentTimeMillis();
+    }
+
+    private final QueueService queues;
+    private final String queueName;
+    private final int visibilitySeconds;
+    private final long stallMillis;
+
+    // receipt handle -> the job holding it
+    private final Map<String, Held> held = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lease-keeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public LeaseKeeper(QueueService queues, String queueName, int visibilitySeconds, int stallSeconds) {
+        this.queues = queues;
+        this.queueName = queueName;
+        this.visibilitySeconds = visibilitySeconds;
+        this.stallMillis = stallSeconds * 1000L;
+
+        long period = Math.max(1, visibilitySeconds / 3);
+        timer.scheduleAtFixedRate(this::extendAll, period, period, TimeUnit.SECONDS);
+    }
+
+    /** Starts extending the message; the job reports its progress on the returned object. */
+    public Progress hold(String receiptHandle) {
+        Held entry = new Held();
+        held.put(receiptHandle, entry);
+        return entry.progress;
+    }
+
+    /** Messages held right now, i.e. jobs this worker is working on. */
+    public int held() {
+        return held.size();
+    }
+
+    /** Stops extending the message and deletes it from the queue (the job is done). */
+    public void release(String receiptHandle) {
+        held.remove(receiptHandle);
+        queues.deleteMessages(queueName, List.of(receiptHandle));
+    }
+
+    /**
+     * Stops extending the message and makes it visible again right away, without deleting it:
+     * the job was taken but won't be processed here (the worker is shutting down).
+     */
+    public void abandon(String receiptHandle) {
+        held.remove(receiptHandle);
+        queues.extendVisibility(queueName, receiptHandle, 0);
+    }
+
+    /** Stops the extension timer; messages still held expire on their own. */
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    private void extendAll() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Held> entry : held.entrySet()) {
+                Held job = entry.getValue();
+                long count = job.progress.count.get();
+                if (count != job.lastCount || job.progress.waiting) {
+                    job.lastCount = count;
+                    job.lastMoved = now;
+                }
+                if (now - job.lastMoved > stallMillis) {
+                    System.err.println("[WORKER] No progress for " + stallMillis / 1000 +
+                            "s, letting the job's lease expire");
+                    continue;
+                }
+                queues.extendVisibility(queueName, entry.getKey(), visibilitySeconds);
+            }
+        } catch (RuntimeException e) {
+            // Never let an exception cancel the periodic task
+            System.err.println("[WORKER] Lease extension failed: " + e.getMessage());
+        }
+    }
+}
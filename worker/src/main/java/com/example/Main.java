@@ -1,142 +1,670 @@
 package com.example;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Main {
 
     private static final String WORKER_QUEUE_NAME = "ass1-worker-queue";
+    // Jobs of interactive (small) tasks; always checked before the bulk queue
+    private static final String PRIORITY_QUEUE_NAME = "ass1-worker-queue-priority";
     private static final String MANAGER_QUEUE_NAME = "ass1-manager-queue";
+    // Every -Dworker.heartbeatSeconds the worker tells the manager how many jobs it holds, so
+    // the autoscaler only terminates idle workers. -Dworker.id names it (the EC2 instance id;
+    // a local instance runs on a thread named after its id)
+    private static final String HEARTBEAT_QUEUE_NAME = "ass1-worker-heartbeats";
+    private static final int HEARTBEAT_SECONDS = Integer.getInteger("worker.heartbeatSeconds", 15);
+
+    // How many jobs to take per receive. Every job is a whole document, so the default
+    // stays at 1 to keep jobs spread across workers; raise it for many small documents.
+    private static final int RECEIVE_BATCH_SIZE = Integer.getInteger("worker.receiveBatch", 1);
+
+    // Jobs processed concurrently by this worker (-Dworker.slots). Lines inside a job are
+    // parsed on StanfordAnalysis.parsePool(), sized with -Dworker.parseThreads.
+    private static final int JOB_SLOTS = Integer.getInteger("worker.slots", 1);
+
+    // Visibility timeout of a leased job, renewed while parsing progresses; a job with no
+    // progress for STALL_SECONDS is given back to the queue (-Dworker.visibilitySeconds / stallSeconds)
+    private static final int VISIBILITY_SECONDS = Integer.getInteger("worker.visibilitySeconds", 60);
+    private static final int STALL_SECONDS = Integer.getInteger("worker.stallSeconds", 180);
+
+    // Bytes past its end fetched with a shard of a staged document, for its last paragraph
+    private static final long SHARD_READ_AHEAD = 64 * 1024;
+
+    // Reuse analysis results of earlier jobs for the same document version (-Dworker.resultCache)
+    private static final boolean USE_RESULT_CACHE =
+            Boolean.parseBoolean(System.getProperty("worker.resultCache", "true"));
+    private static ResultCache resultCache;
+
+    // Documents downloaded ahead of the parse slots (-Dworker.prefetch). 0 = no pipeline: each slot
+    // receives, downloads, parses and uploads one job after the other, streaming the document.
+    private static final int PREFETCH = Integer.getInteger("worker.prefetch", 1);
+
+    // Models are loaded and the parser is warmed up before the first poll (-Dworker.warmupRounds,
+    // 0 = load lazily on the first job). -Dworker.warmupOnly=true exits after the warm-up; the
+    // appcds build profile runs the worker that way to record the class-data-sharing archive.
+    private static final int WARMUP_ROUNDS = Integer.getInteger("worker.warmupRounds", 2);
+    private static final boolean WARMUP_ONLY = Boolean.getBoolean("worker.warmupOnly");
+
+    // Milliseconds from JVM start until polling started / the first result was sent (-1 = not yet)
+    private static volatile long readyMs = -1;
+    private static final AtomicLong firstResultMs = new AtomicLong(-1);
 
     public static void main(String[] args) {
         System.out.println("[WORKER] Starting worker...");
+        String workerId = System.getProperty("worker.id", Thread.currentThread().getName());
 
-        AWS aws = AWS.getInstance();
+        if (WARMUP_ROUNDS > 0) {
+            try {
+                StanfordAnalysis.warmUp(WARMUP_ROUNDS);
+            } catch (IOException e) {
+                System.err.println("[WORKER] Warm-up failed, the first jobs will run cold: " + e.getMessage());
+            }
+        }
+        if (WARMUP_ONLY) {
+            System.out.println("[WORKER] Warm-up only, exiting.");
+            return;
+        }
+
+        CloudServices aws = CloudServices.getInstance();
 
         // Make sure bucket and queues exist (idempotent)
-        aws.createBucketIfNotExists(aws.bucketName);
+        aws.createBucketIfNotExists(aws.getBucketName());
         aws.createSqsQueue(WORKER_QUEUE_NAME);
+        aws.createSqsQueue(PRIORITY_QUEUE_NAME);
         aws.createSqsQueue(MANAGER_QUEUE_NAME);
+        aws.createSqsQueue(HEARTBEAT_QUEUE_NAME);
 
-        while (true) {
-            // 1) Get raw job message from worker queue (e.g. "POS<TAB>https://...txt")
-            String[] message = aws.receiveJobAsync(WORKER_QUEUE_NAME, 10);
+        // Per run: local workers are threads of one JVM, each with its own leases and heartbeat
+        Leases leases = new Leases(aws);
 
+        Metrics.gauge("worker.sentences", StanfordAnalysis::sentencesAnalyzed);
+        Metrics.gauge("worker.sentenceCache.size", () -> StanfordAnalysis.sentenceCache().size());
+        Metrics.gauge("worker.resultCache.hits", ResultCache::hits);
+        Metrics.gauge("worker.resultCache.misses", ResultCache::misses);
+        Metrics.gauge("worker.startup.readyMs", () -> readyMs);
+        Metrics.gauge("worker.startup.firstResultMs", firstResultMs::get);
+        Metrics.startReporting("worker");
 
-            if (message == null) {
-                System.out.println("[WORKER] No messages. Will check again...");
-                sleep(5000);
-                continue;
+        readyMs = ManagementFactory.getRuntimeMXBean().getUptime();
+        System.out.println("[WORKER] Ready to poll " + readyMs + " ms after JVM start");
+
+        List<Thread> threads = PREFETCH > 0 ? startPipeline(aws, leases) : startSlots(aws, leases);
+        ScheduledExecutorService heartbeat = startHeartbeat(aws, workerId, leases);
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            // Interrupted from outside (the local backend terminates workers this way)
+            System.out.println("[WORKER] Interrupted, shutting down.");
+            for (Thread thread : threads) {
+                thread.interrupt();
             }
+            // They finish or give back the jobs they hold before the leases stop being extended
+            try {
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException again) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            heartbeat.shutdownNow();
+            leases.close();
+        }
+    }
+
+    // This worker's leases on the bulk and the priority job queue
+    private static final class Leases {
+        final LeaseKeeper bulk;
+        final LeaseKeeper priority;
 
-            String jobMessage = message[0];
-            String responseQueue = message[1];
+        Leases(CloudServices aws) {
+            bulk = new LeaseKeeper(aws, WORKER_QUEUE_NAME, VISIBILITY_SECONDS, STALL_SECONDS);
+            priority = new LeaseKeeper(aws, PRIORITY_QUEUE_NAME, VISIBILITY_SECONDS, STALL_SECONDS);
+        }
 
-            System.out.println("[WORKER] New job: " + jobMessage);
+        int held() {
+            return bulk.held() + priority.held();
+        }
+
+        void close() {
+            bulk.close();
+            priority.close();
+        }
+    }
 
+    // "<worker id>\t<jobs held>" to the manager every HEARTBEAT_SECONDS, the first one right away
+    private static ScheduledExecutorService startHeartbeat(CloudServices aws, String workerId, Leases leases) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(() -> {
             try {
-                // 2) Parse message: "TYPE<TAB>URL"
-                Job job = parseJobMessage(jobMessage);
-                System.out.println("[WORKER] Parsed job: type=" + job.analysisType +
-                                   ", url=" + job.url);
+                aws.sendMessage(HEARTBEAT_QUEUE_NAME,
+                        workerId + "\t" + leases.held());
+            } catch (RuntimeException e) {
+                // Never let an exception cancel the periodic task
+                System.err.println("[WORKER] Heartbeat failed: " + e.getMessage());
+            }
+        }, 0, Math.max(1, HEARTBEAT_SECONDS), TimeUnit.SECONDS);
+        return timer;
+    }
 
-                // 3) Download text file from URL to a temp file
-                Path inputFile = downloadFromUrl(job.url);
-                System.out.println("[WORKER] Downloaded input to " + inputFile);
+    // Each slot runs its own receive/download+parse/upload loop; all slots share one parse pool
+    private static List<Thread> startSlots(CloudServices aws, Leases leases) {
+        List<Thread> slots = new ArrayList<>();
+        for (int i = 1; i <= JOB_SLOTS; i++) {
+            Thread slot = new Thread(() -> pollLoop(aws, leases), "job-slot-" + i);
+            slots.add(slot);
+            slot.start();
+        }
+        System.out.println("[WORKER] Running " + JOB_SLOTS + " job slot(s)");
+        return slots;
+    }
 
-                // 4) analyze the input file
-                Path analysisFile = StanfordAnalysis.performAnalysis(job.analysisType, inputFile);
-                System.out.println("[WORKER] Created analysis file " + analysisFile);
+    /**
+     * Staged worker: fetch threads receive the next jobs and download their documents to temp
+     * files while the parse slots work, and the finish thread completes the uploads and sends
+     * the results while the parse slots already start on the next document. The stages hand off
+     * through bounded queues: at most PREFETCH documents wait for a parse slot and JOB_SLOTS
+     * jobs for the finish thread, so leases and temp files stay bounded.
+     */
+    private static List<Thread> startPipeline(CloudServices aws, Leases leases) {
+        BlockingQueue<PendingJob> fetched = new ArrayBlockingQueue<>(PREFETCH);
+        // A full hand-off queue makes the parse slot finish the job itself, which slows it down
+        ExecutorService finisher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(JOB_SLOTS), r -> {
+                    Thread t = new Thread(r, "job-finish");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        Metrics.gauge("worker.pipeline.fetched", fetched::size);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 1; i <= JOB_SLOTS; i++) {
+            threads.add(new Thread(() -> fetchLoop(aws, leases, fetched), "job-fetch-" + i));
+            threads.add(new Thread(() -> parseLoop(aws, fetched, finisher), "job-slot-" + i));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        System.out.println("[WORKER] Running " + JOB_SLOTS + " job slot(s), prefetching " + PREFETCH + " document(s)");
+        return threads;
+    }
 
-                // 5) Upload analysis file to S3
-                String outputKey = buildOutputKeyFromUrl(job.url, job.analysisType);
-                aws.uploadFile(outputKey, analysisFile);
-                String outputS3Url = "s3://" + aws.bucketName + "/" + outputKey;
-                System.out.println("[WORKER] Uploaded analysis to " + outputS3Url);
+    private static void pollLoop(CloudServices aws, Leases leases) {
+        // Stops when interrupted
+        while (!Thread.currentThread().isInterrupted()) {
+            for (PendingJob pending : receiveJobs(aws, leases)) {
+                try {
+                    prepare(aws, pending);
+                    if (!pending.toAnalyze.isEmpty()) {
+                        // Stream: HTTP download -> parser -> S3 multipart upload, without temp files
+                        try (BufferedReader in = openDocument(aws, pending.job, pending.shard)) {
+                            analyze(aws, pending, in);
+                        }
+                    }
+                } catch (Exception e) {
+                    pending.failure = e;
+                }
+                finish(aws, pending);
+            }
+        }
+    }
+
+    // Pipeline stage 1: lease jobs, check the result cache and download what has to be parsed
+    private static void fetchLoop(CloudServices aws, Leases leases, BlockingQueue<PendingJob> fetched) {
+        while (!Thread.currentThread().isInterrupted()) {
+            for (PendingJob pending : receiveJobs(aws, leases)) {
+                try {
+                    prepare(aws, pending);
+                    if (!pending.toAnalyze.isEmpty()) {
+                        long downloadStart = System.nanoTime();
+                        if (stagedKey(aws, pending.job) == null && DocumentFetcher.shared().caching()) {
+                            // Already on local disk once open; keeping it open survives eviction
+                            pending.input = openUrlReader(pending.job.url, pending.shard);
+                        } else {
+                            pending.document = download(aws, pending.job, pending.shard, pending.progress);
+                            pending.input = Files.newBufferedReader(pending.document, StandardCharsets.UTF_8);
+                        }
+                        Metrics.histogram("worker.download").recordSince(downloadStart);
+                    }
+                } catch (Exception e) {
+                    pending.failure = e;
+                }
+                try {
+                    pending.progress.waiting(true);
+                    fetched.put(pending);
+                } catch (InterruptedException e) {
+                    // Shutting down: the job goes back to the queue for another worker
+                    abandon(pending);
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // Pipeline stage 2: parse the downloaded document, streaming into the uploads
+    private static void parseLoop(CloudServices aws, BlockingQueue<PendingJob> fetched, ExecutorService finisher) {
+        while (!Thread.currentThread().isInterrupted()) {
+            PendingJob pending;
+            long waitStart = System.nanoTime();
+            try {
+                pending = fetched.take();
+            } catch (InterruptedException e) {
+                // Shutting down: prefetched jobs go back to the queue for another worker
+                List<PendingJob> left = new ArrayList<>();
+                fetched.drainTo(left);
+                for (PendingJob job : left) {
+                    abandon(job);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            }
+            pending.progress.waiting(false);
+            // Time the parse slot had nothing to do: a high value means fetching is the bottleneck
+            Metrics.histogram("worker.parse.wait").recordSince(waitStart);
+
+            if (pending.failure == null && !pending.toAnalyze.isEmpty()) {
+                try (BufferedReader in = pending.input) {
+                    analyze(aws, pending, in);
+                } catch (Exception e) {
+                    pending.failure = e;
+                }
+            }
+            // Pipeline stage 3
+            finisher.execute(() -> finish(aws, pending));
+        }
+    }
+
+    // A received job on its way through the stages
+    private static final class PendingJob {
+        final QueueMessage message;
+        final LeaseKeeper keeper;
+        // Advanced as the job's document is read and its analysis written, for its lease
+        final LeaseKeeper.Progress progress;
+        final long start = System.nanoTime();
+
+        JobMessage job;
+        Shard shard;
+        ParserTier tier;
+        List<String> types;
+        // Output key and sentence count per type; types cached under cacheKeys are stored there when done
+        final Map<String, String> outputKeys = new HashMap<>();
+        final Map<String, Integer> sentenceCounts = new HashMap<>();
+        final Map<String, String> cacheKeys = new HashMap<>();
+        final List<String> toAnalyze = new ArrayList<>();
+
+        // Prefetched document (pipeline only), and the temp file holding it when the cache is off
+        BufferedReader input;
+        Path document;
+        List<BlobOutputStream> uploads = new ArrayList<>();   // written, not yet completed
+        Exception failure;
+
+        PendingJob(QueueMessage message, LeaseKeeper keeper, LeaseKeeper.Progress progress) {
+            this.message = message;
+            this.keeper = keeper;
+            this.progress = progress;
+        }
+    }
 
-                // 6) Send SUCCESS message to manager:
-                //    "<INPUT_URL>\t<OUTPUT_S3_URL>\t<ANALYSIS_TYPE>"
-                String resultMessage = job.url + "\t" + outputS3Url + "\t" + job.analysisType;
-                aws.sendJobMessage(MANAGER_QUEUE_NAME, resultMessage, responseQueue);
-                System.out.println("[WORKER] Sent result to manager: " + resultMessage);
+    // 1) Lease raw job messages from worker queue (e.g. "POS<TAB>https://...txt").
+    //    They are deleted only after the result was sent, and kept invisible meanwhile.
+    //    Interactive jobs first (short poll), then the bulk queue (long poll).
+    private static List<PendingJob> receiveJobs(CloudServices aws, Leases leases) {
+        long receiveStart = System.nanoTime();
+        LeaseKeeper keeper = leases.priority;
+        List<QueueMessage> messages =
+                aws.receiveLeases(PRIORITY_QUEUE_NAME, RECEIVE_BATCH_SIZE, VISIBILITY_SECONDS, 0);
+        if (messages.isEmpty()) {
+            keeper = leases.bulk;
+            messages = aws.receiveLeases(WORKER_QUEUE_NAME, RECEIVE_BATCH_SIZE, VISIBILITY_SECONDS, 5);
+        }
 
-                // 7) Clean temp files
-                deleteQuietly(inputFile);
-                deleteQuietly(analysisFile);
+        Metrics.histogram("worker.receive").recordSince(receiveStart);
 
-            } catch (Exception e) {
-                // Any exception during processing this job
-                System.err.println("[WORKER] Error while processing job: " + e.getMessage());
-                e.printStackTrace();
+        List<PendingJob> jobs = new ArrayList<>();
+        for (QueueMessage message : messages) {
+            jobs.add(new PendingJob(message, keeper, keeper.hold(message.receiptHandle)));
+        }
+        return jobs;
+    }
 
-                // Send ERROR message to manager:
-                // "ERROR\t<ORIGINAL_JOB_MESSAGE>\t<SHORT_ERROR>"
-                String errorMessage = "ERROR\t" + jobMessage + "\t" +
-                        shorten(e.toString(), 200);
-                aws.sendJobMessage(MANAGER_QUEUE_NAME, errorMessage, responseQueue);
-                System.out.println("[WORKER] Reported ERROR to manager: " + errorMessage);
+    private static void prepare(CloudServices aws, PendingJob pending) {
+        System.out.println("[WORKER] New job: " + pending.message.body);
+        Metrics.counter("worker.jobs").increment();
+
+        // 2) Parse message: "TYPE<TAB>URL[<TAB>key=value...]"
+        JobMessage job = JobMessage.parse(pending.message.body);
+        pending.job = job;
+        pending.shard = job.option("shard") == null ? null : Shard.parse(job.option("shard"));
+        pending.tier = ParserTier.of(job.option("tier"));
+        pending.types = job.analysisTypes();
+        System.out.println("[WORKER] Parsed job: type=" + String.join(",", pending.types) +
+                           ", url=" + job.url + ", tier=" + pending.tier);
+
+        // 3) Result cache: the same (URL, type, document version) was analyzed before?
+        //    Cached results are stored under their cache key, so a hit needs no copy. The document
+        //    is validated once for all types.
+        Map<String, String> typeKeys = USE_RESULT_CACHE ? resultCache(aws).keysFor(job, pending.shard) : Map.of();
+        for (String type : new LinkedHashSet<>(pending.types)) {
+            String cacheKey = typeKeys.get(type);
+            int cached = cacheKey == null ? -1 : resultCache(aws).lookup(cacheKey);
+            if (cached >= 0) {
+                pending.outputKeys.put(type, cacheKey);
+                pending.sentenceCounts.put(type, cached);
+                System.out.printf("[WORKER] Result cache hit for %s %s (hits=%d, misses=%d)%n",
+                        type, job.url, ResultCache.hits(), ResultCache.misses());
+                continue;
+            }
 
-                // Then continue to next message (do NOT crash the worker)
+            if (cacheKey != null) {
+                System.out.printf("[WORKER] Result cache miss for %s %s (hits=%d, misses=%d)%n",
+                        type, job.url, ResultCache.hits(), ResultCache.misses());
+                pending.cacheKeys.put(type, cacheKey);
+                pending.outputKeys.put(type, cacheKey);
+            } else if (pending.shard != null) {
+                pending.outputKeys.put(type, buildShardOutputKey(pending.shard, type));
+            } else {
+                pending.outputKeys.put(type, buildOutputKeyFromUrl(job.url, type));
             }
+            pending.toAnalyze.add(type);
         }
     }
 
-    // ---------- Helpers ----------
+    // 4-5) Parse the document and stream the analysis of each type that wasn't cached into its own
+    //      blob. All those types share one parse. Memory is bounded by the parse window and one
+    //      upload part per type. The uploads are left open for finish(), and aborted on failure.
+    private static void analyze(CloudServices aws, PendingJob pending, BufferedReader in) throws IOException {
+        try {
+            List<Writer> outs = new ArrayList<>();
+            for (String type : pending.toAnalyze) {
+                BlobOutputStream upload = aws.openUploadStream(pending.outputKeys.get(type));
+                pending.uploads.add(upload);
+                outs.add(new ProgressWriter(new OutputStreamWriter(upload, StandardCharsets.UTF_8), pending.progress));
+            }
+
+            long analysisStart = System.nanoTime();
+            int sentences = StanfordAnalysis.performAnalysis(pending.toAnalyze, pending.tier,
+                    new ProgressReader(in, pending.progress), outs, StanfordAnalysis.parsePool());
+            long analysisMs = Math.max(1, (System.nanoTime() - analysisStart) / 1_000_000);
+
+            for (String type : pending.toAnalyze) {
+                pending.sentenceCounts.put(type, sentences);
+            }
+            // Reported under the tier that ran: FAST only if no type fell back to the PCFG
+            ParserTier ran = pending.tier;
+            for (String type : pending.toAnalyze) {
+                if (StanfordAnalysis.effectiveTier(type, pending.tier) != pending.tier) {
+                    ran = ParserTier.PCFG;
+                }
+            }
+            Metrics.counter("worker.sentences." + ran.name().toLowerCase()).add(sentences);
+            System.out.printf("[WORKER] Analyzed %d sentence(s) for %s in %d ms (%.1f sentences/s, tier %s)%n",
+                    sentences, String.join(",", pending.toAnalyze), analysisMs, sentences * 1000.0 / analysisMs,
+                    ran);
+        } catch (IOException | RuntimeException e) {
+            for (BlobOutputStream upload : pending.uploads) {
+                upload.abort();
+            }
+            throw e;
+        }
+    }
 
-    // Represents a parsed job request
-    private static class Job {
-        final String analysisType;
-        final String url;
+    // Completes the uploads and reports the result (or the failure), then gives up the lease
+    private static void finish(CloudServices aws, PendingJob pending) {
+        try {
+            if (pending.failure == null) {
+                try {
+                    // The last parts and the completion of the multipart uploads
+                    long uploadStart = System.nanoTime();
+                    for (BlobOutputStream upload : pending.uploads) {
+                        upload.close();
+                    }
+                    Metrics.histogram("worker.upload.finish").recordSince(uploadStart);
+                    for (Map.Entry<String, String> cached : pending.cacheKeys.entrySet()) {
+                        resultCache(aws).store(cached.getValue(), pending.sentenceCounts.get(cached.getKey()));
+                    }
+                    sendResult(aws, pending);
+                } catch (Exception e) {
+                    for (BlobOutputStream upload : pending.uploads) {
+                        upload.abort();
+                    }
+                    pending.failure = e;
+                }
+            }
+            if (pending.failure != null) {
+                reportError(aws, pending);
+            }
+        } finally {
+            closeQuietly(pending.input);
+            deleteQuietly(pending.document);
+            pending.keeper.release(pending.message.receiptHandle);
+        }
+    }
 
-        Job(String analysisType, String url) {
-            this.analysisType = analysisType;
-            this.url = url;
+    // Gives a job up unprocessed: its message becomes visible again and its download is dropped
+    private static void abandon(PendingJob pending) {
+        pending.keeper.abandon(pending.message.receiptHandle);
+        closeQuietly(pending.input);
+        deleteQuietly(pending.document);
+    }
+
+    // 6) Send SUCCESS message to manager, one line per requested type:
+    //    "<INPUT_URL>\t<OUTPUT_S3_URL>\t<ANALYSIS_TYPE>"
+    //    plus "\tshard=<group:index:count>\tsentences=<n>" for a shard, so the manager can merge,
+    //    and "\tseq=<n>", the input line the result is for, so it can put results in order
+    private static void sendResult(CloudServices aws, PendingJob pending) {
+        JobMessage job = pending.job;
+        Shard shard = pending.shard;
+        List<Integer> lineNumbers = job.lineNumbers();
+        StringBuilder resultMessage = new StringBuilder();
+        for (int i = 0; i < pending.types.size(); i++) {
+            String type = pending.types.get(i);
+            if (resultMessage.length() > 0) {
+                resultMessage.append('\n');
+            }
+            resultMessage.append(job.url).append("\ts3://").append(aws.getBucketName()).append('/')
+                    .append(pending.outputKeys.get(type)).append('\t').append(type);
+            if (shard != null) {
+                resultMessage.append("\tshard=").append(shard.group).append(':').append(shard.index)
+                        .append(':').append(shard.count).append("\tsentences=").append(pending.sentenceCounts.get(type));
+            }
+            if (lineNumbers.size() > i) {
+                resultMessage.append("\tseq=").append(lineNumbers.get(i));
+            }
+        }
+        aws.sendJobMessage(MANAGER_QUEUE_NAME, resultMessage.toString(), pending.message.responseQueue);
+        System.out.println("[WORKER] Sent result to manager: " + resultMessage);
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        if (firstResultMs.compareAndSet(-1, uptime)) {
+            System.out.println("[WORKER] First result sent " + uptime + " ms after JVM start");
         }
+        Metrics.histogram("worker.job").recordSince(pending.start);
     }
 
-    // Parse lines like: "POS<TAB>https://www.gutenberg.org/files/1659/1659-0.txt"
-    private static Job parseJobMessage(String msg) {
-        String[] parts = msg.split("\\t", 2); // split on TAB, into at most 2 parts
-        if (parts.length != 2) {
-            throw new IllegalArgumentException(
-                    "Invalid job format, expected TYPE<TAB>URL but got: " + msg
-            );
+    private static void reportError(CloudServices aws, PendingJob pending) {
+        Exception e = pending.failure;
+        System.err.println("[WORKER] Error while processing job: " + e.getMessage());
+        e.printStackTrace();
+        Metrics.counter("worker.job.errors").increment();
+
+        // Send ERROR message to manager:
+        // "ERROR\t<ORIGINAL_JOB_MESSAGE>\t<SHORT_ERROR>", one line per type of a grouped job
+        String error = shorten(e.toString(), 200);
+        String errorMessage;
+        if (pending.job == null || pending.job.option("types") == null) {
+            errorMessage = "ERROR\t" + pending.message.body + "\t" + error;
+        } else {
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < pending.job.analysisTypes().size(); i++) {
+                lines.add("ERROR\t" + pending.job.forLine(i) + "\t" + error);
+            }
+            errorMessage = String.join("\n", lines);
         }
-        String type = parts[0].trim();
-        String url = parts[1].trim();
-        if (type.isEmpty() || url.isEmpty()) {
-            throw new IllegalArgumentException("Empty type or URL in job: " + msg);
+        aws.sendJobMessage(MANAGER_QUEUE_NAME, errorMessage, pending.message.responseQueue);
+        System.out.println("[WORKER] Reported ERROR to manager: " + errorMessage);
+
+        // Then continue to next message (do NOT crash the worker)
+    }
+
+    // ---------- Helpers ----------
+
+    // Downloads the document (or one shard of it) into a temp file, for the pipeline's parse stage
+    private static Path download(CloudServices aws, JobMessage job, Shard shard, LeaseKeeper.Progress progress)
+            throws IOException {
+        Path document = Files.createTempFile("ass1-document-", ".txt");
+        try (BufferedReader in = new ProgressReader(openDocument(aws, job, shard), progress);
+             Writer out = Files.newBufferedWriter(document, StandardCharsets.UTF_8)) {
+            in.transferTo(out);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(document);
+            throw e;
         }
-        return new Job(type, url);
+        return document;
     }
 
-    // Download a text file from a URL into a temp file.
-    // (This is HTTP download; AWS.downloadFile is for S3 objects, so we use standard Java here.)
-    private static Path downloadFromUrl(String urlStr) throws IOException {
-        Path tempFile = Files.createTempFile("ass1-input-", ".txt");
-        URL url = new URL(urlStr);
-        try (InputStream in = url.openStream()) {
-            Files.copy(in, tempFile, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+    // Open the job's document (or one shard of it) as a line reader: the copy the manager staged in
+    // S3 when the job has one ("source=s3://bucket/staged/..."), otherwise the origin URL
+    private static BufferedReader openDocument(CloudServices aws, JobMessage job, Shard shard) throws IOException {
+        String key = stagedKey(aws, job);
+        if (key != null) {
+            InputStream in;
+            try {
+                in = shard == null ? aws.openDownloadStream(key) : openStagedShard(aws, key, shard);
+            } catch (RuntimeException e) {
+                System.err.println("[WORKER] Staged copy " + key + " unavailable, reading " + job.url + ": " + e.getMessage());
+                return openUrlReader(job.url, shard);
+            }
+            Metrics.counter("worker.download.staged").increment();
+            if (shard != null) {
+                in = new ShardInputStream(in, shard.start, shard.end);
+            }
+            return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
         }
-        return tempFile;
+        return openUrlReader(job.url, shard);
     }
 
-    // Stub analysis: for now just copy the input into another temp file and add a header.
-    // Later you will replace this with real Stanford Parser analysis in a helper function.
-    private static Path performStubAnalysis(String analysisType, Path inputFile) throws IOException {
-        Path outputFile = Files.createTempFile("ass1-analysis-", ".txt");
+    // One shard of a staged document, read with byte ranges: from one byte before the shard (see
+    // ShardInputStream) to SHARD_READ_AHEAD bytes past its end, which holds the rest of its last
+    // paragraph unless its lines are very long. The remainder of the document is requested only if the
+    // shard reads on beyond that.
+    private static InputStream openStagedShard(CloudServices aws, String key, Shard shard) {
+        long to = shard.end + SHARD_READ_AHEAD;
+        InputStream head = aws.openDownloadStream(key, Math.max(0, shard.start - 1), to);
+        return new InputStream() {
+            private InputStream current = head;
+            private boolean rest = false;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
 
-        String header = "Analysis type: " + analysisType + System.lineSeparator() +
-                        "----- Original content below -----" + System.lineSeparator();
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                int n = current.read(buf, off, len);
+                if (n == -1 && !rest) {
+                    current.close();
+                    rest = true;
+                    try {
+                        current = aws.openDownloadStream(key, to + 1, -1);
+                    } catch (RuntimeException e) {
+                        current = InputStream.nullInputStream();
+                        throw new IOException("Couldn't read " + key + " past byte " + to + ": " + e.getMessage(), e);
+                    }
+                    n = current.read(buf, off, len);
+                }
+                return n;
+            }
 
-        String content = Files.readString(inputFile, StandardCharsets.UTF_8);
+            @Override
+            public void close() throws IOException {
+                current.close();
+            }
+        };
+    }
+
+    // Blob key of the job's staged document in our bucket, or null
+    private static String stagedKey(CloudServices aws, JobMessage job) {
+        String source = job.option("source");
+        String prefix = "s3://" + aws.getBucketName() + "/";
+        return source != null && source.startsWith(prefix) ? source.substring(prefix.length()) : null;
+    }
 
-        Files.writeString(outputFile, header + content, StandardCharsets.UTF_8);
-        return outputFile;
+    // Open a text document (or only the lines of one shard of it) at a URL as a line reader,
+    // from the document cache when it is on (see DocumentFetcher)
+    private static BufferedReader openUrlReader(String urlStr, Shard shard) throws IOException {
+        return DocumentFetcher.shared().open(urlStr, shard);
+    }
+
+    // Reports every read to the job's lease, so a download or parse that stops moving loses it
+    private static final class ProgressReader extends BufferedReader {
+        private final LeaseKeeper.Progress progress;
+
+        ProgressReader(Reader in, LeaseKeeper.Progress progress) {
+            super(in);
+            this.progress = progress;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            progress.advance();
+            return read;
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            String line = super.readLine();
+            progress.advance();
+            return line;
+        }
+    }
+
+    // Reports every analysis written to the job's lease
+    private static final class ProgressWriter extends BufferedWriter {
+        private final LeaseKeeper.Progress progress;
+
+        ProgressWriter(Writer out, LeaseKeeper.Progress progress) {
+            super(out);
+            this.progress = progress;
+        }
+
+        @Override
+        public void write(String text, int offset, int length) throws IOException {
+            super.write(text, offset, length);
+            progress.advance();
+        }
     }
 
     // Build an S3 key for the analysis file based on the URL and analysis type
@@ -147,20 +675,31 @@ public class Main {
         return "analysis/" + filename + "." + analysisType + ".analysis.txt";
     }
 
-    private static void deleteQuietly(Path p) {
-        if (p == null) return;
+    private static synchronized ResultCache resultCache(CloudServices aws) {
+        if (resultCache == null) {
+            resultCache = new ResultCache(aws);
+        }
+        return resultCache;
+    }
+
+    // Shards of one request go under their group; the manager merges them into the final key
+    private static String buildShardOutputKey(Shard shard, String analysisType) {
+        return "analysis/shards/" + shard.group + "/" + shard.index + "." + analysisType + ".analysis.txt";
+    }
+
+    private static void closeQuietly(BufferedReader reader) {
+        if (reader == null) return;
         try {
-            Files.deleteIfExists(p);
+            reader.close();
         } catch (IOException ignored) {
         }
     }
 
-    private static void sleep(long millis) {
+    private static void deleteQuietly(Path p) {
+        if (p == null) return;
         try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-            System.out.println("[WORKER] Interrupted, shutting down.");
-            Thread.currentThread().interrupt();
+            Files.deleteIfExists(p);
+        } catch (IOException ignored) {
         }
     }
 
@@ -0,0 +1,35 @@
+package com.example;
+
+/**
+ * How the sentences of a job are parsed.
+ *
+ *   - PCFG – englishPCFG through LexicalizedParser (the default, most accurate)
+ *   - FAST – POS tagger + shift-reduce parser for CONSTITUENCY and the neural transition-based
+ *            dependency parser for DEPENDENCY (see {@link FastParsers}); several times faster,
+ *            somewhat less accurate, and DEPENDENCY uses Universal Dependencies relation names
+ *
+ * POS jobs always use the tagger, whatever the tier. A job picks its tier with a "tier=fast"
+ * option; jobs without one use -Dworker.parserTier (default pcfg).
+ */
+public enum ParserTier {
+    PCFG,
+    FAST;
+
+    private static final ParserTier DEFAULT = parse(System.getProperty("worker.parserTier"), PCFG);
+
+    /** The tier named by a job option, or the worker's default for null. */
+    public static ParserTier of(String name) {
+        return parse(name, DEFAULT);
+    }
+
+    private static ParserTier parse(String name, ParserTier fallback) {
+        if (name == null || name.isBlank()) {
+            return fallback;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported parser tier: " + name);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache of analysis results in the blob store.
+ *
+ * The key is a SHA-256 of (URL, analysis type, shard range, document validator, plus the
+ * parser tier or POS tagger model where they change the result), where the
+ * validator is the document's ETag, or Last-Modified + Content-Length when there is no ETag.
+ * If the server gives neither we cannot tell whether the document changed, so no caching.
+ * Jobs for a document the manager staged in S3 use the content hash in the staged key instead,
+ * which needs no request to the origin.
+ */
+public class ResultCache {
+
+    private static final AtomicLong HITS = new AtomicLong(0);
+    private static final AtomicLong MISSES = new AtomicLong(0);
+
+    private final BlobStore store;
+
+    public ResultCache(BlobStore store) {
+        this.store = store;
+    }
+
+    /**
+     * The blob keys the job's results are (or will be) cached under, one per analysis type of a
+     * (grouped) job. The document is validated once for all of them.
+     *
+     * @return the keys by type, or an empty map if the document has no validator and must not be cached
+     */
+    public Map<String, String> keysFor(JobMessage job, Shard shard) {
+        Map<String, String> keys = new LinkedHashMap<>();
+        String validator = validatorFor(job);
+        if (validator != null) {
+            for (String type : job.analysisTypes()) {
+                keys.put(type, keyFor(job.forType(type), shard, validator));
+            }
+        }
+        return keys;
+    }
+
+    private static String validatorFor(JobMessage job) {
+        String validator = stagedValidator(job.option("source"));
+        return validator != null ? validator : fetchValidator(job.url);
+    }
+
+    private static String keyFor(JobMessage job, Shard shard, String validator) {
+        String range = shard == null ? "" : shard.start + "-" + shard.end;
+        String id = job.url + "\n" + job.analysisType.trim().toUpperCase() + "\n" + range + "\n" + validator;
+        // FAST results differ from the PCFG ones; PCFG keys stay as they were before tiers existed.
+        // A FAST job that falls back to the PCFG (model missing) makes, and so reuses, PCFG results.
+        ParserTier tier = StanfordAnalysis.effectiveTier(job.analysisType, ParserTier.of(job.option("tier")));
+        if (tier != ParserTier.PCFG && !"POS".equalsIgnoreCase(job.analysisType.trim())) {
+            id += "\n" + tier;
+        }
+        // Same for POS from the tagger; POS keys without it are the parser's, as before the tagger
+        if ("POS".equalsIgnoreCase(job.analysisType.trim()) && StanfordAnalysis.posTaggerModel() != null) {
+            id += "\ntagger:" + StanfordAnalysis.posTaggerModel();
+        }
+        return "cache/" + Digests.sha256Hex(id) + ".analysis.txt";
+    }
+
+    /**
+     * Looks the result up and counts a hit or a miss.
+     *
+     * @return the number of sentences in the cached result, or -1 on a miss
+     */
+    public int lookup(String key) {
+        // The ".sentences" marker is written after the result itself, so it only exists for complete results
+        if (key != null && store.exists(key + ".sentences")) {
+            try (InputStream in = store.openDownloadStream(key + ".sentences")) {
+                int sentences = Integer.parseInt(new String(in.readAllBytes(), StandardCharsets.UTF_8).trim());
+                HITS.incrementAndGet();
+                return sentences;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[WORKER] Unreadable cache entry " + key + ": " + e.getMessage());
+            }
+        }
+        MISSES.incrementAndGet();
+        return -1;
+    }
+
+    /** Marks the result stored under {@code key} as complete. */
+    public void store(String key, int sentences) throws IOException {
+        BlobOutputStream out = store.openUploadStream(key + ".sentences");
+        out.write(Integer.toString(sentences).getBytes(StandardCharsets.UTF_8));
+        out.close();
+    }
+
+    public static long hits() {
+        return HITS.get();
+    }
+
+    public static long misses() {
+        return MISSES.get();
+    }
+
+    // "staged/<sha256>.txt" keys are named after the document's content
+    private static String stagedValidator(String source) {
+        if (source == null) {
+            return null;
+        }
+        int slash = source.lastIndexOf('/');
+        String name = source.substring(slash + 1);
+        if (slash < 0 || !source.substring(0, slash + 1).endsWith("/staged/") || !name.endsWith(".txt")) {
+            return null;
+        }
+        return "sha256:" + name.substring(0, name.length() - ".txt".length());
+    }
+
+    // ETag, or Last-Modified + Content-Length, from a HEAD request; null when unavailable
+    private static String fetchValidator(String urlStr) {
+        try {
+            DocumentHead head = DocumentHead.fetch(urlStr);
+            return head == null ? null : head.validator();
+        } catch (IOException e) {
+            System.err.println("[WORKER] HEAD " + urlStr + " failed, not using the result cache: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bounded LRU cache from (analysis type, normalized sentence) to the rendered analysis,
+ * so repeated sentences (license headers, chapter titles, ...) skip the parser.
+ *
+ * Optionally saved to / loaded from a gzip file so it survives worker restarts.
+ */
+public class SentenceCache {
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, String> entries;
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    public SentenceCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        // accessOrder = true: iteration order is least-recently-used first
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > SentenceCache.this.maxEntries;
+            }
+        };
+    }
+
+    // Whitespace differences don't change the tokens, so they must not change the key either
+    static String key(String type, String sentence) {
+        return type + "\t" + sentence.trim().replaceAll("\\s+", " ");
+    }
+
+    public String get(String type, String sentence) {
+        if (maxEntries <= 0) {
+            return null;
+        }
+        String value;
+        synchronized (entries) {
+            value = entries.get(key(type, sentence));
+        }
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    public void put(String type, String sentence, String analysis) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key(type, sentence), analysis);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /** Writes the entries (oldest first) to {@code file}, replacing it atomically. */
+    public void save(Path file) throws IOException {
+        List<Map.Entry<String, String>> snapshot;
+        synchronized (entries) {
+            snapshot = new ArrayList<>(entries.entrySet());
+        }
+
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), ".sentence-cache-", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, String> e : snapshot) {
+                writeString(out, e.getKey());
+                writeString(out, e.getValue());
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Adds the entries saved in {@code file}, if it exists. */
+    public void load(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(Files.newInputStream(file)))) {
+            int n = in.readInt();
+            synchronized (entries) {
+                for (int i = 0; i < n; i++) {
+                    String key = readString(in);
+                    String value = readString(in);
+                    entries.put(key, value);
+                }
+            }
+        }
+    }
+
+    // writeUTF is limited to 64 KB, which a long constituency tree can exceed
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,164 @@
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Cuts the paragraphs of one {@link Shard} out of a document stream.
+ *
+ * The analysis joins the lines of a paragraph into sentences, so a shard must not end in the
+ * middle of one. Shards are therefore cut at the start of a blank line (whitespace only) rather
+ * than at any line: the cut after a line start L is the first blank line starting less than
+ * {@code maxParagraphBytes} after L, or L itself when there is none (text without blank lines,
+ * which the analysis splits at that size anyway). A shard runs from the cut after its first
+ * line start to the cut after the first line start past {@code end}, so the shards of a
+ * document still cover each byte exactly once.
+ *
+ * The underlying stream must be positioned at byte {@code start - 1} (or 0 for the first shard).
+ */
+public class ShardInputStream extends InputStream {
+
+    /** Default longest paragraph looked through for a blank line, like the analysis' limit. */
+    public static final int MAX_PARAGRAPH_BYTES = 20000;
+
+    private final InputStream in;
+    private final long end;
+    private final int maxParagraphBytes;
+
+    private long position;       // absolute offset of the next byte of the document
+    private boolean atLineStart;
+    private long stopAt = -1;    // offset of the cut that ends this shard, once found
+    private boolean finished = false;
+
+    // Bytes read ahead to find a cut and handed out again before reading on
+    private final ByteArrayOutputStream scanned = new ByteArrayOutputStream();
+    private byte[] replay = new byte[0];
+    private int replayPos = 0;
+
+    public ShardInputStream(InputStream in, long start, long end) throws IOException {
+        this(in, start, end, MAX_PARAGRAPH_BYTES);
+    }
+
+    public ShardInputStream(InputStream in, long start, long end, int maxParagraphBytes) throws IOException {
+        this.in = in;
+        this.end = end;
+        this.maxParagraphBytes = Math.max(1, maxParagraphBytes);
+
+        if (start == 0) {
+            position = 0;
+        } else {
+            // Skip the tail of the line that began before this shard (just the '\n' at start - 1
+            // when a line starts exactly at 'start'), then the rest of the paragraph it is in
+            position = start - 1;
+            int b;
+            while ((b = readRaw()) != -1) {
+                if (b == '\n') {
+                    break;
+                }
+            }
+            unread(scanToCut());
+        }
+        atLineStart = true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (finished) {
+            return -1;
+        }
+        // The first line after our range: the shard ends at the cut after it, where the next begins
+        if (stopAt < 0 && atLineStart && position > end) {
+            long lineStart = position;
+            int cut = scanToCut();
+            stopAt = lineStart + cut;
+            unread(0);
+        }
+        if (stopAt >= 0 && position >= stopAt) {
+            finished = true;
+            return -1;
+        }
+
+        int b = readRaw();
+        if (b == -1) {
+            finished = true;
+            return -1;
+        }
+        atLineStart = (b == '\n');
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        while (n < len) {
+            int b = read();
+            if (b == -1) {
+                break;
+            }
+            buf[off + n++] = (byte) b;
+            if (b == '\n') {
+                // Return at line ends so the next range check happens before reading on
+                break;
+            }
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // Reads lines from the current position, a line start, up to the cut after it. Everything
+    // read stays in 'scanned'; returns the cut's offset in it (its size at the end of the document).
+    private int scanToCut() throws IOException {
+        scanned.reset();
+        int lineStart = 0;
+        boolean blank = true;
+        int b;
+        while ((b = readRaw()) != -1) {
+            scanned.write(b);
+            if (b == '\n') {
+                if (blank) {
+                    return lineStart;
+                }
+                lineStart = scanned.size();
+                blank = true;
+                if (lineStart >= maxParagraphBytes) {
+                    return 0;
+                }
+            } else if (b > ' ') {
+                blank = false;
+                if (scanned.size() >= maxParagraphBytes) {
+                    // The next line would start too far away to count
+                    return 0;
+                }
+            }
+        }
+        return scanned.size();
+    }
+
+    // Hands the scanned bytes from offset 'from' out again before the rest of the stream
+    private void unread(int from) {
+        byte[] bytes = scanned.toByteArray();
+        byte[] rest = new byte[bytes.length - from + replay.length - replayPos];
+        System.arraycopy(bytes, from, rest, 0, bytes.length - from);
+        System.arraycopy(replay, replayPos, rest, bytes.length - from, replay.length - replayPos);
+        replay = rest;
+        replayPos = 0;
+        position -= bytes.length - from;
+        scanned.reset();
+    }
+
+    private int readRaw() throws IOException {
+        int b = replayPos < replay.length ? replay[replayPos++] & 0xff : in.read();
+        if (b != -1) {
+            position++;
+        }
+        return b;
+    }
+}
@@ -1,29 +1,53 @@
 package com.example;
 
 import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.Sentence;
 import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.parser.common.ParserQuery;
+import edu.stanford.nlp.parser.common.ParserUtils;
 import edu.stanford.nlp.parser.lexparser.LexicalizedParser;
 import edu.stanford.nlp.process.CoreLabelTokenFactory;
+import edu.stanford.nlp.process.DocumentPreprocessor;
 import edu.stanford.nlp.process.PTBTokenizer;
-import edu.stanford.nlp.process.Tokenizer;
 import edu.stanford.nlp.process.TokenizerFactory;
+import edu.stanford.nlp.tagger.maxent.MaxentTagger;
 import edu.stanford.nlp.trees.GrammaticalStructure;
 import edu.stanford.nlp.trees.GrammaticalStructureFactory;
 import edu.stanford.nlp.trees.PennTreebankLanguagePack;
 import edu.stanford.nlp.trees.Tree;
 import edu.stanford.nlp.trees.TreebankLanguagePack;
 import edu.stanford.nlp.trees.TypedDependency;
+import edu.stanford.nlp.util.RuntimeInterruptedException;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class StanfordAnalysis {
 
@@ -34,6 +58,65 @@ public class StanfordAnalysis {
     private static final TokenizerFactory<CoreLabel> TOKENIZER_FACTORY =
             PTBTokenizer.factory(new CoreLabelTokenFactory(), "");
 
+    // POS jobs only need tags, so they go through the maximum-entropy tagger instead of the
+    // parser (-Dworker.posTagger=false to parse them anyway, -Dworker.posTaggerModel to pick the model)
+    private static final boolean USE_POS_TAGGER =
+            Boolean.parseBoolean(System.getProperty("worker.posTagger", "true"));
+    private static final String POS_TAGGER_MODEL = System.getProperty("worker.posTaggerModel",
+            "edu/stanford/nlp/models/pos-tagger/english-left3words/english-left3words-distsim.tagger");
+
+    // One query per thread: ParserQuery holds the parse chart and is not thread-safe
+    private static final ThreadLocal<ParserQuery> PARSER_QUERY =
+            ThreadLocal.withInitial(PARSER::parserQuery);
+
+    private static final int PARSE_THREADS =
+            Integer.getInteger("worker.parseThreads", Runtime.getRuntime().availableProcessors());
+
+    // How many sentences may be queued/parsing ahead of the one that is written next
+    static final int PARSE_WINDOW = PARSE_THREADS * 4;
+
+    // Sentences longer than this are parsed in chunks (-Dworker.maxTokens)
+    private static final int MAX_TOKENS = Integer.getInteger("worker.maxTokens", 80);
+
+    // Time budget per sentence (-Dworker.parseTimeoutMs, 0 = no limit) and the chunk size used
+    // when a sentence runs over it (-Dworker.fallbackChunkTokens)
+    private static final long PARSE_TIMEOUT_MS = Long.getLong("worker.parseTimeoutMs", 10000);
+    private static final int FALLBACK_CHUNK_TOKENS = Integer.getInteger("worker.fallbackChunkTokens", 20);
+
+    private static final ScheduledExecutorService PARSE_WATCHDOG =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "parse-watchdog");
+                t.setDaemon(true);
+                return t;
+            });
+
+    // Longest paragraph buffered before it is split into sentences anyway
+    private static final int MAX_PARAGRAPH_CHARS = 20000;
+
+    private static final AtomicLong SENTENCES_ANALYZED = new AtomicLong(0);
+
+    private static final AtomicInteger PARSE_THREAD_IDS = new AtomicInteger(0);
+    private static ExecutorService parsePool;
+
+    // Rendered analyses of recently seen sentences (-Dworker.sentenceCacheSize entries, 0 = off),
+    // persisted between restarts when -Dworker.sentenceCacheFile is set
+    private static final String SENTENCE_CACHE_FILE = System.getProperty("worker.sentenceCacheFile");
+    private static final SentenceCache SENTENCE_CACHE = loadSentenceCache();
+
+    // Sentences run through every analysis before the first job (see warmUp): short and long ones,
+    // questions, quotes, numbers and coordination, so the common parser paths get compiled
+    private static final String WARMUP_TEXT = String.join(" ",
+            "The quick brown fox jumps over the lazy dog.",
+            "It is a truth universally acknowledged, that a single man in possession of a good fortune,"
+                    + " must be in want of a wife.",
+            "Why did the committee postpone the vote until after the holidays?",
+            "\"I don't know,\" she said, \"but we will find out tomorrow.\"",
+            "In 1859 the ship carried 240 passengers and 3.5 tons of mail from Liverpool to New York.",
+            "The old man who lived by the river sold fish in the morning and mended nets in the evening,"
+                    + " while his sons, who had never learned the trade, worked in the city and rarely"
+                    + " came home.",
+            "Stop!");
+
     private static final TreebankLanguagePack TLP = new PennTreebankLanguagePack();
     private static final GrammaticalStructureFactory GSF =
             TLP.grammaticalStructureFactory();
@@ -49,83 +132,594 @@ public class StanfordAnalysis {
      * The function writes the analysis result into a temporary output file and
      * returns the Path of that file.
      *
-     * The input is processed line-by-line so that long files do not overwhelm the parser.
+     * The input is split into sentences and processed sentence-by-sentence so that long
+     * files do not overwhelm the parser.
      */
     public static Path performAnalysis(String analysisType, Path inputFile) throws IOException {
-        if (analysisType == null) {
-            throw new IllegalArgumentException("analysisType must not be null");
-        }
+        return performAnalysis(analysisType, inputFile, null);
+    }
 
-        String type = analysisType.trim().toUpperCase();
-        if (!type.equals("POS") && !type.equals("CONSTITUENCY") && !type.equals("DEPENDENCY")) {
-            throw new IllegalArgumentException("Unsupported analysisType: " + analysisType);
-        }
+    /**
+     * Same as {@link #performAnalysis(String, Path)}, but sentences are parsed on {@code parsePool}
+     * (null = in the calling thread). At most {@link #PARSE_WINDOW} sentences are in flight and
+     * results are written in input order, so the output is identical to the sequential one.
+     */
+    public static Path performAnalysis(String analysisType, Path inputFile, ExecutorService parsePool)
+            throws IOException {
+        String type = normalizeType(analysisType);
 
         Path outputFile = Files.createTempFile("ass1-analysis-", ".txt");
 
         try (BufferedReader reader = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8);
              BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8)) {
+            performAnalysis(type, reader, writer, parsePool);
+        }
 
-            String line;
-            int lineNumber = 0;
+        return outputFile;
+    }
+
+    /**
+     * Streaming form: reads lines from {@code reader} and writes the analysis to {@code writer}
+     * as soon as each sentence is done, so neither the input nor the output is ever held in full.
+     * The writer is flushed but not closed.
+     *
+     * Hard-wrapped lines are joined into paragraphs (blank lines end a paragraph and are kept
+     * in the output), and each paragraph is split into sentences with DocumentPreprocessor,
+     * so the parser sees whole sentences rather than line fragments.
+     *
+     * @return the number of sentences analyzed
+     */
+    public static int performAnalysis(String analysisType, BufferedReader reader, Writer writer,
+                                      ExecutorService parsePool) throws IOException {
+        return performAnalysis(analysisType, ParserTier.of(null), reader, writer, parsePool);
+    }
+
+    /** Streaming form with the parser tier chosen by the job (see {@link ParserTier}). */
+    public static int performAnalysis(String analysisType, ParserTier tier, BufferedReader reader,
+                                      Writer writer, ExecutorService parsePool) throws IOException {
+        return performAnalysis(List.of(analysisType), tier, reader, List.of(writer), parsePool);
+    }
+
+    /**
+     * Several analysis types of one document at once: {@code writers.get(i)} receives the
+     * output of {@code analysisTypes.get(i)}, identical to what a single-type run would write.
+     * Every sentence is parsed once and the tree rendered for each type that needs the parser.
+     */
+    public static int performAnalysis(List<String> analysisTypes, ParserTier tier, BufferedReader reader,
+                                      List<Writer> writers, ExecutorService parsePool) throws IOException {
+        if (analysisTypes.size() != writers.size()) {
+            throw new IllegalArgumentException("One writer per analysis type expected");
+        }
+        String[] types = new String[analysisTypes.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = normalizeType(analysisTypes.get(i));
+        }
+
+        OrderedOutput output = new OrderedOutput(writers, parsePool);
+        StringBuilder paragraph = new StringBuilder();
+        int sentences = 0;
 
+        try {
+            String line;
             while ((line = reader.readLine()) != null) {
-                lineNumber++;
                 String trimmed = line.trim();
+
                 if (trimmed.isEmpty()) {
+                    sentences = submitParagraph(types, tier, paragraph, sentences, output);
                     // Preserve blank lines
-                    writer.write(System.lineSeparator());
+                    output.addDone(System.lineSeparator());
                     continue;
                 }
 
+                if (paragraph.length() > 0) {
+                    paragraph.append(' ');
+                }
+                paragraph.append(trimmed);
+
+                // Text without blank lines must not make us buffer the whole document
+                if (paragraph.length() >= MAX_PARAGRAPH_CHARS) {
+                    sentences = submitParagraph(types, tier, paragraph, sentences, output);
+                }
+            }
+            sentences = submitParagraph(types, tier, paragraph, sentences, output);
+
+            output.finish();
+        } finally {
+            output.cancelPending();
+        }
+
+        return sentences;
+    }
+
+    // Splits the buffered paragraph into sentences, queues them for analysis and clears the buffer
+    private static int submitParagraph(String[] types, ParserTier tier, StringBuilder paragraph, int sentences,
+                                       OrderedOutput output) throws IOException {
+        if (paragraph.length() == 0) {
+            return sentences;
+        }
+
+        for (List<HasWord> sentence : splitSentences(paragraph.toString())) {
+            final int number = ++sentences;
+            output.add(() -> analyzeSentence(types, tier, number, sentence));
+        }
+
+        paragraph.setLength(0);
+        return sentences;
+    }
+
+    // Tokenizes text and splits it into sentences (package-private for the benchmarks)
+    static Iterable<List<HasWord>> splitSentences(String text) {
+        DocumentPreprocessor preprocessor = new DocumentPreprocessor(new StringReader(text));
+        preprocessor.setTokenizerFactory(TOKENIZER_FACTORY);
+        return preprocessor;
+    }
+
+    /**
+     * Results in submission order. Tasks run on the pool (or inline without one); at most
+     * PARSE_WINDOW results are pending, and the oldest is written before more are queued.
+     */
+    private static class OrderedOutput {
+        private final List<Writer> writers;
+        private final ExecutorService pool;
+        // One text per writer
+        private final Deque<Future<String[]>> inFlight = new ArrayDeque<>();
+
+        OrderedOutput(List<Writer> writers, ExecutorService pool) {
+            this.writers = writers;
+            this.pool = pool;
+        }
+
+        void add(Callable<String[]> task) throws IOException {
+            if (pool == null) {
                 try {
-                    // Tokenize and parse this line
-                    List<CoreLabel> tokens = tokenize(trimmed);
-                    Tree parseTree = PARSER.apply(tokens);
-
-                    writer.write("=== LINE " + lineNumber + " ===");
-                    writer.newLine();
-                    writer.write(trimmed);
-                    writer.newLine();
-
-                    switch (type) {
-                        case "POS":
-                            writePosTags(parseTree, writer);
-                            break;
-                        case "CONSTITUENCY":
-                            writeConstituencyParse(parseTree, writer);
-                            break;
-                        case "DEPENDENCY":
-                            writeDependencyParse(parseTree, writer);
-                            break;
-                        default:
-                            // Should never get here because of the earlier check
-                            throw new IllegalStateException("Unexpected analysis type: " + type);
+                    addDone(task.call());
+                } catch (Exception e) {
+                    throw new IOException("Analysis task failed", e);
+                }
+                return;
+            }
+            inFlight.add(pool.submit(task));
+            drain(PARSE_WINDOW);
+        }
+
+        // The same text for every writer
+        void addDone(String text) throws IOException {
+            String[] texts = new String[writers.size()];
+            Arrays.fill(texts, text);
+            addDone(texts);
+        }
+
+        private void addDone(String[] texts) throws IOException {
+            inFlight.add(CompletableFuture.completedFuture(texts));
+            drain(PARSE_WINDOW);
+        }
+
+        void finish() throws IOException {
+            drain(1);
+            for (Writer writer : writers) {
+                writer.flush();
+            }
+        }
+
+        // Only non-empty if reading or writing failed half-way: don't keep parsing for nobody
+        void cancelPending() {
+            for (Future<String[]> pending : inFlight) {
+                pending.cancel(true);
+            }
+            inFlight.clear();
+        }
+
+        private void drain(int keepBelow) throws IOException {
+            while (inFlight.size() >= keepBelow && !inFlight.isEmpty()) {
+                String[] texts = await(inFlight.poll());
+                for (int i = 0; i < texts.length; i++) {
+                    writers.get(i).write(texts[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse threads shared by all job slots of this worker, sized with
+     * -Dworker.parseThreads (default: number of cores).
+     */
+    public static synchronized ExecutorService parsePool() {
+        if (parsePool == null) {
+            parsePool = Executors.newFixedThreadPool(PARSE_THREADS, r -> {
+                Thread t = new Thread(r, "parse-" + PARSE_THREAD_IDS.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return parsePool;
+    }
+
+    private static String normalizeType(String analysisType) {
+        if (analysisType == null) {
+            throw new IllegalArgumentException("analysisType must not be null");
+        }
+
+        String type = analysisType.trim().toUpperCase();
+        if (!type.equals("POS") && !type.equals("CONSTITUENCY") && !type.equals("DEPENDENCY")) {
+            throw new IllegalArgumentException("Unsupported analysisType: " + analysisType);
+        }
+        return type;
+    }
+
+    private static String[] await(Future<String[]> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for parse results", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Parse task failed", e.getCause());
+        }
+    }
+
+    // Parse and render one sentence (header, sentence text, analysis, separator), once per type
+    private static String[] analyzeSentence(String[] type, ParserTier tier, int sentenceNumber,
+                                            List<HasWord> sentence) {
+        String[] out = new String[type.length];
+        String nl = System.lineSeparator();
+        SENTENCES_ANALYZED.incrementAndGet();
+
+        try {
+            String text = Sentence.listToString(sentence);
+            String[] analysis = analyze(type, tier, text, sentence);
+
+            for (int i = 0; i < type.length; i++) {
+                out[i] = "=== SENTENCE " + sentenceNumber + " ===" + nl
+                        + text + nl
+                        + analysis[i]
+                        + nl; // separator between sentences
+            }
+
+        } catch (Exception e) {
+            // If the parser fails on a specific sentence, record the error and continue
+            Arrays.fill(out, "### ERROR parsing sentence " + sentenceNumber + ": " + e.getMessage() + nl + nl);
+        }
+
+        return out;
+    }
+
+    // The analyses of one sentence, each from the sentence cache, the tagger (POS), the FAST tier
+    // or the PCFG; the PCFG runs at most once, however many types need its tree
+    private static String[] analyze(String[] type, ParserTier tier, String text, List<HasWord> tokens)
+            throws IOException {
+        String[] analysis = new String[type.length];
+        List<Tree> parseTrees = null;
+
+        for (int i = 0; i < type.length; i++) {
+            // The tiers give different analyses, so they are cached apart (POS is the same for both,
+            // but tagger and parser tags differ). A FAST job whose model is missing is a PCFG job.
+            ParserTier ran = effectiveTier(type[i], tier);
+            String cacheType = "POS".equals(type[i]) ? (posTagger() != null ? "POS@TAGGER" : "POS")
+                    : ran == ParserTier.PCFG ? type[i] : type[i] + "@" + ran;
+            analysis[i] = SENTENCE_CACHE.get(cacheType, text);
+            if (analysis[i] != null) {
+                continue;
+            }
+
+            MaxentTagger tagger = "POS".equals(type[i]) ? posTagger() : null;
+            if (tagger != null) {
+                // Tagging is linear in the sentence length, so no chunking or time budget is needed
+                long tagStart = System.nanoTime();
+                List<TaggedWord> tagged = tagger.tagSentence(tokens);
+                Metrics.histogram("worker.tag.sentence").recordSince(tagStart);
+
+                StringWriter out = new StringWriter();
+                BufferedWriter writer = new BufferedWriter(out);
+                writeTaggedWords(tagged, writer);
+                writer.flush();
+                analysis[i] = out.toString();
+            } else if (ran == ParserTier.FAST) {
+                analysis[i] = analyzeFast(type[i], tokens);
+            }
+
+            if (analysis[i] == null) {
+                // The PCFG's analysis, whatever the tier asked for
+                cacheType = "POS".equals(type[i]) ? "POS" : type[i];
+                if (parseTrees == null) {
+                    // Parse (in pieces if the sentence is too long or too slow, see parseGuarded)
+                    long parseStart = System.nanoTime();
+                    parseTrees = parseGuarded(tokens, MAX_TOKENS);
+                    Metrics.histogram("worker.parse.sentence").recordSince(parseStart);
+                }
+                analysis[i] = render(type[i], parseTrees);
+            }
+            SENTENCE_CACHE.put(cacheType, text, analysis[i]);
+        }
+        return analysis;
+    }
+
+    // FAST tier: tag, then shift-reduce (CONSTITUENCY) or the neural dependency parser (DEPENDENCY).
+    // Both are linear in the sentence length, so there is no chunking or time budget.
+    // Null when the tagger or the model isn't available; the caller then uses the PCFG.
+    private static String analyzeFast(String type, List<HasWord> tokens) throws IOException {
+        MaxentTagger tagger = posTagger();
+        if (tagger == null || !FastParsers.available(type)) {
+            return null;
+        }
+
+        long parseStart = System.nanoTime();
+        List<TaggedWord> tagged = tagger.tagSentence(tokens);
+        String analysis;
+        if ("CONSTITUENCY".equals(type)) {
+            Tree tree = FastParsers.constituency(tagged);
+            if (tree == null) {
+                return null;
+            }
+            analysis = render(type, List.of(tree));
+        } else {
+            StringWriter out = new StringWriter();
+            BufferedWriter writer = new BufferedWriter(out);
+            writeDependencies(FastParsers.dependencies(tagged), writer);
+            writer.flush();
+            analysis = out.toString();
+        }
+        Metrics.histogram("worker.parse.sentence.fast").recordSince(parseStart);
+        return analysis;
+    }
+
+    // Serializes parse trees in the output format of the analysis type
+    static String render(String type, List<Tree> parseTrees) throws IOException {
+        StringWriter out = new StringWriter();
+        BufferedWriter writer = new BufferedWriter(out);
+        for (Tree parseTree : parseTrees) {
+            switch (type) {
+                case "POS":
+                    writePosTags(parseTree, writer);
+                    break;
+                case "CONSTITUENCY":
+                    writeConstituencyParse(parseTree, writer);
+                    break;
+                case "DEPENDENCY":
+                    writeDependencyParse(parseTree, writer);
+                    break;
+                default:
+                    // Should never get here because of the earlier check
+                    throw new IllegalStateException("Unexpected analysis type: " + type);
+            }
+        }
+        writer.flush();
+        return out.toString();
+    }
+
+    /**
+     * Loads the models a job of the default tier needs and runs a small built-in corpus through
+     * every analysis type {@code rounds} times on the parse pool, so the first real job starts
+     * with loaded models, per-thread parser queries and JIT-compiled parser code.
+     * Warm-up sentences bypass the sentence cache and aren't counted as analyzed.
+     */
+    public static void warmUp(int rounds) throws IOException {
+        // The PCFG is loaded with this class; the tagger and the FAST models on first use
+        long start = System.nanoTime();
+        MaxentTagger tagger = posTagger();
+        ParserTier tier = ParserTier.of(null);
+        if (tier == ParserTier.FAST) {
+            FastParsers.available("CONSTITUENCY");
+            FastParsers.available("DEPENDENCY");
+        }
+        long loadMs = (System.nanoTime() - start) / 1_000_000;
+
+        List<List<HasWord>> sentences = new ArrayList<>();
+        for (List<HasWord> sentence : splitSentences(WARMUP_TEXT)) {
+            sentences.add(sentence);
+        }
+
+        ExecutorService pool = parsePool();
+        for (int round = 0; round < rounds; round++) {
+            List<Future<?>> pending = new ArrayList<>();
+            // At least one sentence per parse thread, so every thread gets its own parser query
+            for (int i = 0; i < Math.max(sentences.size(), PARSE_THREADS); i++) {
+                List<HasWord> tokens = sentences.get(i % sentences.size());
+                pending.add(pool.submit(() -> {
+                    if (tagger != null) {
+                        tagger.tagSentence(tokens);
+                    }
+                    for (String type : new String[]{"CONSTITUENCY", "DEPENDENCY"}) {
+                        if (tier != ParserTier.FAST || analyzeFast(type, tokens) == null) {
+                            render(type, parseGuarded(tokens, MAX_TOKENS));
+                        }
                     }
+                    return null;
+                }));
+            }
+            for (Future<?> warmup : pending) {
+                try {
+                    warmup.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted during warm-up", e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Warm-up failed", e.getCause());
+                }
+            }
+        }
 
-                    writer.newLine(); // separator between lines
+        System.out.printf("[WORKER] Warmed up: models loaded in %d ms, %d round(s) of %d sentence(s) in %d ms%n",
+                loadMs, rounds, sentences.size(), (System.nanoTime() - start) / 1_000_000 - loadMs);
+    }
 
-                } catch (Exception e) {
-                    // If the parser fails on a specific line, record the error and continue
-                    writer.write("### ERROR parsing line " + lineNumber + ": " + e.getMessage());
-                    writer.newLine();
-                    writer.newLine();
+    /**
+     * The tier that really analyzes {@code type} when {@code tier} is asked for: FAST falls back
+     * to the PCFG when the tagger or the type's FAST model can't be loaded. POS is tagged the same
+     * way in both tiers.
+     */
+    public static ParserTier effectiveTier(String type, ParserTier tier) {
+        String normalized = type.trim().toUpperCase();
+        if (tier != ParserTier.FAST || "POS".equals(normalized)) {
+            return tier;
+        }
+        return posTagger() != null && FastParsers.available(normalized) ? ParserTier.FAST : ParserTier.PCFG;
+    }
+
+    /** The POS tagger, loaded on first use; null if it is turned off or its model is missing. */
+    static MaxentTagger posTagger() {
+        return USE_POS_TAGGER ? TaggerHolder.TAGGER : null;
+    }
+
+    /**
+     * What POS results are made with: the tagger model, or null when they come from the parser.
+     * Results from the two differ, so they must not share cache entries.
+     */
+    public static String posTaggerModel() {
+        return posTagger() != null ? POS_TAGGER_MODEL : null;
+    }
+
+    private static final class TaggerHolder {
+        static final MaxentTagger TAGGER = loadTagger();
+
+        private static MaxentTagger loadTagger() {
+            try {
+                MaxentTagger tagger = new MaxentTagger(POS_TAGGER_MODEL);
+                System.out.println("[WORKER] POS jobs use the tagger model " + POS_TAGGER_MODEL);
+                return tagger;
+            } catch (RuntimeException e) {
+                System.err.println("[WORKER] POS tagger model " + POS_TAGGER_MODEL +
+                        " not available, POS jobs use the parser: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    /** The process-wide sentence cache (for stats and tests). */
+    public static SentenceCache sentenceCache() {
+        return SENTENCE_CACHE;
+    }
+
+    /** Saves the sentence cache to -Dworker.sentenceCacheFile, if set. */
+    public static void saveSentenceCache() {
+        if (SENTENCE_CACHE_FILE == null) {
+            return;
+        }
+        try {
+            SENTENCE_CACHE.save(Paths.get(SENTENCE_CACHE_FILE));
+            System.out.printf("[WORKER] Saved %d cached sentence(s) to %s (hits=%d, misses=%d)%n",
+                    SENTENCE_CACHE.size(), SENTENCE_CACHE_FILE, SENTENCE_CACHE.hits(), SENTENCE_CACHE.misses());
+        } catch (IOException e) {
+            System.err.println("[WORKER] Could not save sentence cache: " + e.getMessage());
+        }
+    }
+
+    private static SentenceCache loadSentenceCache() {
+        SentenceCache cache = new SentenceCache(Integer.getInteger("worker.sentenceCacheSize", 10000));
+        if (SENTENCE_CACHE_FILE != null) {
+            try {
+                cache.load(Paths.get(SENTENCE_CACHE_FILE));
+                System.out.printf("[WORKER] Loaded %d cached sentence(s) from %s%n", cache.size(), SENTENCE_CACHE_FILE);
+            } catch (IOException e) {
+                System.err.println("[WORKER] Could not load sentence cache: " + e.getMessage());
+            }
+            // Saved when the JVM exits, so the next worker process starts warm
+            Runtime.getRuntime().addShutdownHook(new Thread(StanfordAnalysis::saveSentenceCache, "save-sentence-cache"));
+        }
+        return cache;
+    }
+
+    /**
+     * PCFG parsing is cubic in sentence length, so:
+     *   - sentences longer than {@code maxTokens} are parsed as consecutive chunks of that size;
+     *   - a parse that exceeds -Dworker.parseTimeoutMs is interrupted and the sentence is
+     *     parsed again as short chunks of -Dworker.fallbackChunkTokens, which are cheap.
+     * Each chunk yields its own tree, so a guarded sentence renders as several analyses.
+     */
+    private static List<Tree> parseGuarded(List<? extends HasWord> tokens, int maxTokens) {
+        List<Tree> trees = new ArrayList<>();
+
+        if (tokens.size() > maxTokens) {
+            for (int from = 0; from < tokens.size(); from += maxTokens) {
+                int to = Math.min(from + maxTokens, tokens.size());
+                trees.addAll(parseGuarded(tokens.subList(from, to), maxTokens));
+            }
+            return trees;
+        }
+
+        if (PARSE_TIMEOUT_MS <= 0 || maxTokens <= FALLBACK_CHUNK_TOKENS) {
+            // Short enough that the budget is not needed
+            trees.add(parse(tokens));
+            return trees;
+        }
+
+        Tree tree = parseWithBudget(tokens);
+        if (tree != null) {
+            trees.add(tree);
+        } else {
+            System.err.printf("[WORKER] Parse of a %d-token sentence took over %d ms, re-parsing in chunks%n",
+                    tokens.size(), PARSE_TIMEOUT_MS);
+            trees.addAll(parseGuarded(tokens, FALLBACK_CHUNK_TOKENS));
+        }
+        return trees;
+    }
+
+    // Parses in the calling thread, interrupting it after PARSE_TIMEOUT_MS. Returns null on timeout;
+    // any other interrupt (shutdown, a cancelled job) is kept and stops the parse.
+    private static Tree parseWithBudget(List<? extends HasWord> tokens) {
+        Thread self = Thread.currentThread();
+        // [0] the parse is over, [1] the watchdog interrupted it
+        boolean[] state = {false, false};
+
+        ScheduledFuture<?> alarm = PARSE_WATCHDOG.schedule(() -> {
+            synchronized (state) {
+                if (!state[0]) {
+                    state[1] = true;
+                    self.interrupt();
                 }
             }
+        }, PARSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        boolean timedOut;
+        try {
+            return parse(tokens);
+        } catch (RuntimeInterruptedException e) {
+            // The query was abandoned half-way; give this thread a fresh one
+            PARSER_QUERY.remove();
+            synchronized (state) {
+                timedOut = state[1];
+            }
+            if (!timedOut) {
+                // The parser consumed the interrupt when it stopped: put it back for the caller
+                self.interrupt();
+                throw e;
+            }
+            return null;
+        } finally {
+            synchronized (state) {
+                state[0] = true;
+                timedOut = state[1];
+            }
+            alarm.cancel(false);
+            if (timedOut) {
+                // Clear the watchdog's interrupt if it arrived after the parser stopped checking for it
+                Thread.interrupted();
+            }
         }
+    }
 
-        return outputFile;
+    /** Number of sentences analyzed so far in this JVM (used as a progress signal). */
+    public static long sentencesAnalyzed() {
+        return SENTENCES_ANALYZED.get();
     }
 
-    private static List<CoreLabel> tokenize(String sentence) {
-        Tokenizer<CoreLabel> tokenizer =
-                TOKENIZER_FACTORY.getTokenizer(new StringReader(sentence));
-        return tokenizer.tokenize();
+    // Parse with this thread's own ParserQuery; the LexicalizedParser itself is read-only and shared
+    static Tree parse(List<? extends HasWord> tokens) {
+        ParserQuery pq = PARSER_QUERY.get();
+        if (pq.parse(tokens)) {
+            return pq.getBestParse();
+        }
+        // What LexicalizedParser.apply returns when no parse was found: a flat X tree, without
+        // parsing the sentence a second time
+        return ParserUtils.xTree(tokens);
     }
 
     // POS tagging using the parse tree's tagged yield
     private static void writePosTags(Tree parseTree, BufferedWriter writer) throws IOException {
-        List<TaggedWord> taggedWords = parseTree.taggedYield();
+        writeTaggedWords(parseTree.taggedYield(), writer);
+    }
+
+    // One "word<TAB>tag" line per token, the same for tagger and parser output
+    private static void writeTaggedWords(List<TaggedWord> taggedWords, BufferedWriter writer) throws IOException {
         for (TaggedWord tw : taggedWords) {
             writer.write(tw.word());
             writer.write('\t');
@@ -143,7 +737,10 @@ public class StanfordAnalysis {
 
     // Dependency parsing: print typed dependencies (CC-processed)
     private static void writeDependencyParse(Tree parseTree, BufferedWriter writer) throws IOException {
-        GrammaticalStructure gs = GSF.newGrammaticalStructure(parseTree);
+        writeDependencies(GSF.newGrammaticalStructure(parseTree), writer);
+    }
+
+    private static void writeDependencies(GrammaticalStructure gs, BufferedWriter writer) throws IOException {
         Collection<TypedDependency> dependencies = gs.typedDependenciesCCprocessed();
         for (TypedDependency td : dependencies) {
             writer.write(td.toString());
@@ -0,0 +1,205 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import com.example.DocumentFetcher;
+import com.example.Shard;
+import com.sun.net.httpserver.HttpServer;
+
+public class DocumentFetcherTest {
+
+    private static final String DOC = "first line\nsecond line\nthird line\n";
+
+    /**
+     * Minimal origin: serves DOC under any path with an ETag, answers a matching
+     * If-None-Match with 304, gzips when asked to, and records every request.
+     * With {@code failWith} set it answers every request with that status instead.
+     */
+    private static class Origin implements AutoCloseable {
+        final HttpServer server;
+        final List<String> requests = new CopyOnWriteArrayList<>();
+        volatile int failWith = 0;
+
+        Origin() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/", exchange -> {
+                String path = exchange.getRequestURI().getPath();
+                String etag = "\"v1-" + path + "\"";
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                requests.add(path + (ifNoneMatch != null ? " conditional" : ""));
+                if (failWith != 0) {
+                    exchange.sendResponseHeaders(failWith, -1);
+                    exchange.close();
+                    return;
+                }
+
+                exchange.getResponseHeaders().set("ETag", etag);
+                if (etag.equals(ifNoneMatch)) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] body = DOC.getBytes(StandardCharsets.UTF_8);
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+                    try (GZIPOutputStream gzip = new GZIPOutputStream(zipped)) {
+                        gzip.write(body);
+                    }
+                    body = zipped.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+        }
+
+        String url(String path) {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+        }
+    }
+
+    private static String read(BufferedReader reader) throws IOException {
+        try (BufferedReader in = reader) {
+            return in.lines().collect(Collectors.joining("\n", "", "\n"));
+        }
+    }
+
+    /**
+     * A document used again within the freshness window costs no request at all.
+     */
+    @Test
+    public void testFreshDocumentIsServedWithoutRequest() throws Exception {
+        Path dir = Files.createTempDirectory("documents");
+        try (Origin origin = new Origin()) {
+            DocumentFetcher fetcher = new DocumentFetcher(dir, 1 << 20, 60_000);
+
+            assertEquals(DOC, read(fetcher.open(origin.url("/a.txt"), null)));
+            assertEquals(DOC, read(fetcher.open(origin.url("/a.txt"), null)));
+
+            assertEquals(List.of("/a.txt"), origin.requests);
+        }
+    }
+
+    /**
+     * Once the window has passed, the cached copy is revalidated with its ETag and a 304 keeps it.
+     */
+    @Test
+    public void testStaleDocumentIsRevalidated() throws Exception {
+        Path dir = Files.createTempDirectory("documents");
+        try (Origin origin = new Origin()) {
+            DocumentFetcher fetcher = new DocumentFetcher(dir, 1 << 20, 0);
+
+            assertEquals(DOC, read(fetcher.open(origin.url("/a.txt"), null)));
+            assertEquals(DOC, read(fetcher.open(origin.url("/a.txt"), null)));
+
+            assertEquals(List.of("/a.txt", "/a.txt conditional"), origin.requests);
+        }
+    }
+
+    /**
+     * If the origin answers the revalidation with an error, the stale copy is used.
+     */
+    @Test
+    public void testStaleCopyIsServedWhenRevalidationFails() throws Exception {
+        Path dir = Files.createTempDirectory("documents");
+        try (Origin origin = new Origin()) {
+            DocumentFetcher fetcher = new DocumentFetcher(dir, 1 << 20, 0);
+
+            assertEquals(DOC, read(fetcher.open(origin.url("/a.txt"), null)));
+            origin.failWith = 503;
+            assertEquals(DOC, read(fetcher.open(origin.url("/a.txt"), null)));
+
+            assertEquals(List.of("/a.txt", "/a.txt conditional"), origin.requests);
+        }
+    }
+
+    /**
+     * Beyond the size bound the least recently used document is dropped from disk.
+     */
+    @Test
+    public void testLeastRecentlyUsedDocumentIsEvicted() throws Exception {
+        Path dir = Files.createTempDirectory("documents");
+        try (Origin origin = new Origin()) {
+            int size = DOC.getBytes(StandardCharsets.UTF_8).length;
+            DocumentFetcher fetcher = new DocumentFetcher(dir, 2L * size, 60_000);
+
+            Path a = fetcher.fetch(origin.url("/a.txt"));
+            Path b = fetcher.fetch(origin.url("/b.txt"));
+            fetcher.fetch(origin.url("/a.txt"));              // a is now the most recently used
+            Path c = fetcher.fetch(origin.url("/c.txt"));
+
+            assertTrue(Files.exists(a));
+            assertFalse("b should have been evicted", Files.exists(b));
+            assertTrue(Files.exists(c));
+            assertEquals(2L * size, fetcher.cachedBytes());
+        }
+    }
+
+    /**
+     * A new fetcher on the same directory picks up what an earlier one cached.
+     */
+    @Test
+    public void testCacheSurvivesRestart() throws Exception {
+        Path dir = Files.createTempDirectory("documents");
+        try (Origin origin = new Origin()) {
+            new DocumentFetcher(dir, 1 << 20, 60_000).fetch(origin.url("/a.txt"));
+            DocumentFetcher restarted = new DocumentFetcher(dir, 1 << 20, 60_000);
+
+            assertEquals(DOC, read(restarted.open(origin.url("/a.txt"), null)));
+            assertEquals(1, origin.requests.size());
+        }
+    }
+
+    /**
+     * Shards are cut from the cached copy with the same line rules as a Range download.
+     */
+    @Test
+    public void testShardIsCutFromCachedDocument() throws Exception {
+        Path dir = Files.createTempDirectory("documents");
+        try (Origin origin = new Origin()) {
+            DocumentFetcher fetcher = new DocumentFetcher(dir, 1 << 20, 60_000);
+            long second = DOC.indexOf("second");
+            Shard shard = new Shard("g", 1, 2, second, DOC.length() - 1);
+
+            assertEquals("second line\nthird line\n", read(fetcher.open(origin.url("/a.txt"), shard)));
+        }
+    }
+
+    /**
+     * With the cache off, documents are streamed (and gunzipped) on every open.
+     */
+    @Test
+    public void testUncachedDocumentIsStreamed() throws Exception {
+        Path dir = Files.createTempDirectory("documents");
+        try (Origin origin = new Origin()) {
+            DocumentFetcher fetcher = new DocumentFetcher(dir, 0, 60_000);
+
+            assertEquals(DOC, read(fetcher.open(origin.url("/a.txt"), null)));
+            assertEquals(DOC, read(fetcher.open(origin.url("/a.txt"), null)));
+
+            assertEquals(2, origin.requests.size());
+            assertFalse(fetcher.caching());
+        }
+    }
+}
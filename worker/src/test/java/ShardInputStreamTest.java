@@ -0,0 +1,69 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import com.example.ShardInputStream;
+
+public class ShardInputStreamTest {
+
+    private static final String DOC = "first line\nsecond\n\nfourth line here\nlast";
+
+    /**
+     * Helper: read shard [start, end] of DOC the way the worker does (stream positioned at start - 1).
+     */
+    private String readShard(long start, long end, int maxParagraphBytes) throws IOException {
+        byte[] bytes = DOC.getBytes(StandardCharsets.UTF_8);
+        InputStream in = new ByteArrayInputStream(bytes);
+        in.skipNBytes(Math.max(0, start - 1));
+        try (ShardInputStream shard = new ShardInputStream(in, start, end, maxParagraphBytes)) {
+            return new String(shard.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private String readShard(long start, long end) throws IOException {
+        return readShard(start, end, ShardInputStream.MAX_PARAGRAPH_BYTES);
+    }
+
+    /**
+     * Whatever the cut points and paragraph limit are, concatenating the shards must give back the document.
+     */
+    @Test
+    public void testShardsCoverEveryLineOnce() throws Exception {
+        int length = DOC.getBytes(StandardCharsets.UTF_8).length;
+
+        for (int maxParagraph = 1; maxParagraph <= length + 1; maxParagraph++) {
+            for (int size = 1; size <= length; size++) {
+                StringBuilder joined = new StringBuilder();
+                for (long start = 0; start < length; start += size) {
+                    long end = Math.min(length, start + size) - 1;
+                    joined.append(readShard(start, end, maxParagraph));
+                }
+                assertEquals("Shards of size " + size + " with paragraphs of " + maxParagraph +
+                        " should rebuild the document", DOC, joined.toString());
+            }
+        }
+    }
+
+    /**
+     * Shards end and start at blank lines, so no paragraph is split between two of them.
+     */
+    @Test
+    public void testShardsAreCutAtBlankLines() throws Exception {
+        long start = DOC.indexOf("second");
+        assertEquals("first line\nsecond\n", readShard(0, start - 1));
+        assertEquals("\nfourth line here\nlast", readShard(start, start + 7));
+    }
+
+    /**
+     * Without a blank line within the paragraph limit, shards are cut at the next line instead.
+     */
+    @Test
+    public void testLongParagraphIsCutAtLines() throws Exception {
+        long start = DOC.indexOf("second");
+        assertEquals("first line\n", readShard(0, start - 1, 5));
+        assertEquals("second\n\n", readShard(start, start + 7, 5));
+    }
+}
@@ -6,6 +6,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import com.example.StanfordAnalysis;
 
 public class StanfordAnalysisTest {
@@ -131,6 +133,54 @@ public class StanfordAnalysisTest {
         assertTrue("Output should contain at least one empty line for blank input line", hasEmptyLine);
     }
 
+    /**
+     * Parallel parsing must keep the output identical (and in input order) to the sequential run.
+     */
+    @Test
+    public void testPerformAnalysisParallelKeepsOrder() throws Exception {
+        Path inputFile = createTempInput(
+                "The quick brown fox jumps over the lazy dog.",
+                "",
+                "Another short sentence.",
+                "Colorless green ideas sleep furiously.",
+                "A dog barked."
+        );
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Path sequential = StanfordAnalysis.performAnalysis("CONSTITUENCY", inputFile);
+            Path parallel = StanfordAnalysis.performAnalysis("CONSTITUENCY", inputFile, pool);
+
+            assertEquals("Parallel output should match sequential output",
+                    Files.readAllLines(sequential, StandardCharsets.UTF_8),
+                    Files.readAllLines(parallel, StandardCharsets.UTF_8));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * A repeated sentence is served from the sentence cache and renders exactly like the first one.
+     */
+    @Test
+    public void testRepeatedSentenceUsesCache() throws Exception {
+        String sentence = "This boilerplate sentence repeats in every book.";
+        Path inputFile = createTempInput(sentence, "Something else entirely.", sentence);
+
+        long hitsBefore = StanfordAnalysis.sentenceCache().hits();
+        Path outputFile = StanfordAnalysis.performAnalysis("DEPENDENCY", inputFile);
+        List<String> lines = assertBasicOutput(outputFile);
+
+        assertTrue("Second occurrence should be a cache hit",
+                StanfordAnalysis.sentenceCache().hits() > hitsBefore);
+
+        int first = lines.indexOf("=== SENTENCE 1 ===");
+        int third = lines.indexOf("=== SENTENCE 3 ===");
+        int second = lines.indexOf("=== SENTENCE 2 ===");
+        assertEquals("Cached analysis should match the parsed one",
+                lines.subList(first + 1, second), lines.subList(third + 1, lines.size()));
+    }
+
     /**
      * Invalid analysis type should throw IllegalArgumentException.
      */